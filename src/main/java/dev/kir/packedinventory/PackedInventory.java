@@ -19,10 +19,13 @@ import dev.kir.packedinventory.inventory.PackedInventoryInventoryViewHandlers;
 import dev.kir.packedinventory.inventory.PackedInventoryInventoryViewers;
 import dev.kir.packedinventory.item.PackedInventoryTooltipSyncDataProviders;
 import dev.kir.packedinventory.networking.PackedInventoryPackets;
+import dev.kir.packedinventory.util.entity.ItemDropQueue;
 import net.fabricmc.api.ClientModInitializer;
 import net.fabricmc.api.EnvType;
 import net.fabricmc.api.Environment;
 import net.fabricmc.api.ModInitializer;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
 import net.fabricmc.loader.api.FabricLoader;
 import net.minecraft.util.Identifier;
 
@@ -43,6 +46,8 @@ public class PackedInventory implements ModInitializer, ClientModInitializer, Pa
     @Override
     public void onInitialize() {
         PackedInventoryPackets.init();
+        ServerTickEvents.END_SERVER_TICK.register(server -> ItemDropQueue.tick());
+        ServerLifecycleEvents.SERVER_STOPPING.register(server -> ItemDropQueue.flush());
 
         for (PackedInventoryInitializer initializer : FabricLoader.getInstance().getEntrypoints(ENTRYPOINT, PackedInventoryInitializer.class)) {
             initializer.registerInventoryViewers(InventoryViewerRegistry.getInstance(), CONFIG);
@@ -23,7 +23,7 @@ final class DefaultInventoryAction implements InventoryAction {
 
     @Override
     public boolean invoke(ServerPlayerEntity player) {
-        return DefaultInventoryAction.invoke(player, ListUtil.copyOf(this.slots));
+        return InventoryViewUtil.withViewCache(() -> DefaultInventoryAction.invoke(player, ListUtil.copyOf(this.slots)));
     }
 
     @Override
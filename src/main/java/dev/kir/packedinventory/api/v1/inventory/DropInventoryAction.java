@@ -23,7 +23,7 @@ final class DropInventoryAction implements InventoryAction {
 
     @Override
     public boolean invoke(ServerPlayerEntity player) {
-        return DropInventoryAction.invoke(player, ListUtil.copyOf(this.slots));
+        return InventoryViewUtil.withViewCache(() -> DropInventoryAction.invoke(player, ListUtil.copyOf(this.slots)));
     }
 
     @Override
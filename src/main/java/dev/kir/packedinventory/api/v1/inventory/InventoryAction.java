@@ -116,4 +116,22 @@ public interface InventoryAction {
     static InventoryAction drop(List<Integer> slots) {
         return new DropInventoryAction(slots);
     }
+
+    /**
+     * Creates an inventory action that merges and sorts items stored in a specific slot.
+     * @param slot The slot containing items to be sorted.
+     * @return An inventory action that sorts items stored in the specified slot.
+     */
+    static InventoryAction sort(int slot) {
+        return InventoryAction.sort(IntList.of(slot));
+    }
+
+    /**
+     * Creates an inventory action that merges and sorts items stored in multiple slots.
+     * @param slots The slots containing items to be sorted.
+     * @return An inventory action that sorts items stored in the specified slots.
+     */
+    static InventoryAction sort(List<Integer> slots) {
+        return new SortInventoryAction(slots);
+    }
 }
@@ -19,5 +19,10 @@ public final class InventoryActionTypes {
      */
     public static final InventoryActionType<?> DROP = DropInventoryAction.TYPE;
 
+    /**
+     * Represents the item sorting action.
+     */
+    public static final InventoryActionType<?> SORT = SortInventoryAction.TYPE;
+
     private InventoryActionTypes() { }
 }
@@ -0,0 +1,76 @@
+package dev.kir.packedinventory.api.v1.inventory;
+
+import net.minecraft.inventory.Inventory;
+
+/**
+ * Describes an inventory view without the need to open it.
+ */
+public final class InventoryViewMetadata {
+    /**
+     * Metadata of an inventory view that has no slots.
+     */
+    public static final InventoryViewMetadata EMPTY = new InventoryViewMetadata(0, 0);
+
+    private final int size;
+    private final int occupiedSlotCount;
+
+    private InventoryViewMetadata(int size, int occupiedSlotCount) {
+        this.size = size;
+        this.occupiedSlotCount = occupiedSlotCount;
+    }
+
+    /**
+     * Creates new {@link InventoryViewMetadata} instance.
+     * @param size Number of slots in the inventory view.
+     * @param occupiedSlotCount Number of non-empty slots in the inventory view.
+     * @return New {@link InventoryViewMetadata} instance.
+     */
+    public static InventoryViewMetadata of(int size, int occupiedSlotCount) {
+        int clampedSize = Math.max(size, 0);
+        return clampedSize == 0 ? EMPTY : new InventoryViewMetadata(clampedSize, Math.min(Math.max(occupiedSlotCount, 0), clampedSize));
+    }
+
+    /**
+     * Creates new {@link InventoryViewMetadata} instance that describes the given {@code inventory}.
+     * @param inventory Inventory view.
+     * @return New {@link InventoryViewMetadata} instance that describes the given {@code inventory}.
+     */
+    public static InventoryViewMetadata of(Inventory inventory) {
+        int size = inventory.size();
+        int occupiedSlotCount = 0;
+        for (int i = 0; i < size; ++i) {
+            if (!inventory.getStack(i).isEmpty()) {
+                ++occupiedSlotCount;
+            }
+        }
+        return InventoryViewMetadata.of(size, occupiedSlotCount);
+    }
+
+    /**
+     * @return Number of slots in the inventory view.
+     */
+    public int getSize() {
+        return this.size;
+    }
+
+    /**
+     * @return Number of non-empty slots in the inventory view.
+     */
+    public int getOccupiedSlotCount() {
+        return this.occupiedSlotCount;
+    }
+
+    /**
+     * @return Number of empty slots left in the inventory view.
+     */
+    public int getFreeSlotCount() {
+        return this.size - this.occupiedSlotCount;
+    }
+
+    /**
+     * @return {@code true} if the inventory view contains no items; otherwise, {@code false}.
+     */
+    public boolean isEmpty() {
+        return this.occupiedSlotCount == 0;
+    }
+}
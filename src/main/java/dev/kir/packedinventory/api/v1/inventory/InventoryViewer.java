@@ -1,9 +1,12 @@
 package dev.kir.packedinventory.api.v1.inventory;
 
 import dev.kir.packedinventory.api.v1.FailureReason;
+import net.minecraft.block.entity.BlockEntityType;
 import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.inventory.Inventory;
+import net.minecraft.item.BlockItem;
 import net.minecraft.item.Item;
+import net.minecraft.registry.tag.TagKey;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.Collection;
@@ -24,6 +27,47 @@ public interface InventoryViewer {
      */
     Inventory view(Inventory inventory, int slot, PlayerEntity player);
 
+    /**
+     * Describes an inventory view at the selected slot within the target inventory without opening it.
+     */
+    @FunctionalInterface
+    interface MetadataProvider {
+        /**
+         * Describes an inventory view at the selected {@code slot} within the target {@code inventory} without opening it.
+         * @param inventory Inventory.
+         * @param slot Inventory slot.
+         * @param player Player.
+         * @return Metadata of the inventory view at the selected {@code slot} within the target {@code inventory}.
+         */
+        InventoryViewMetadata getMetadata(Inventory inventory, int slot, PlayerEntity player);
+    }
+
+    /**
+     * {@link InventoryViewer} that is able to describe its inventory views without opening them.
+     */
+    interface MetadataViewer extends InventoryViewer, MetadataProvider {
+        /**
+         * Creates new {@link MetadataViewer} that opens inventory views via the given {@code viewer},
+         * and describes them via the given {@code metadataProvider}.
+         * @param viewer Inventory viewer.
+         * @param metadataProvider Metadata provider that agrees with the given {@code viewer}.
+         * @return New {@link MetadataViewer} instance.
+         */
+        static MetadataViewer of(InventoryViewer viewer, MetadataProvider metadataProvider) {
+            return new MetadataViewer() {
+                @Override
+                public Inventory view(Inventory inventory, int slot, PlayerEntity player) {
+                    return viewer.view(inventory, slot, player);
+                }
+
+                @Override
+                public InventoryViewMetadata getMetadata(Inventory inventory, int slot, PlayerEntity player) {
+                    return metadataProvider.getMetadata(inventory, slot, player);
+                }
+            };
+        }
+    }
+
     /**
      * A predicate that checks if the given {@link InventoryViewer} can open an inventory view.
      */
@@ -203,6 +247,196 @@ public interface InventoryViewer {
         }
     }
 
+    /**
+     * Tag-based version of {@link Predicate} that succeeds only for items in the given tag.
+     */
+    @FunctionalInterface
+    interface TagPredicate extends Predicate {
+        /**
+         * @return Item tag associated with this {@link TagPredicate}.
+         */
+        TagKey<Item> getTag();
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        default boolean test(Inventory inventory, int slot, PlayerEntity player) {
+            return inventory.getStack(slot).isIn(this.getTag());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        default TagPredicate and(Predicate other) {
+            return TagPredicate.of(this.getTag(), (i, s, p) -> this.test(i, s, p) && other.test(i, s, p));
+        }
+
+        /**
+         * Creates new {@link TagPredicate} that succeeds only for items in the given tag.
+         * @param tag Item tag associated with new {@link TagPredicate}.
+         * @return New {@link TagPredicate} instance that succeeds only for items in the given tag.
+         */
+        static TagPredicate of(TagKey<Item> tag) {
+            return TagPredicate.of(tag, null);
+        }
+
+        /**
+         * Creates new {@link TagPredicate} that succeeds only for items in the given tag when {@code innerPredicate} succeeds.
+         * @param tag Item tag associated with new {@link TagPredicate}.
+         * @param innerPredicate Inner predicate.
+         * @return New {@link TagPredicate} instance that succeeds only for items in the given tag when {@code innerPredicate} succeeds.
+         */
+        static TagPredicate of(TagKey<Item> tag, @Nullable Predicate innerPredicate) {
+            if (innerPredicate == null) {
+                return () -> tag;
+            } else {
+                return new TagPredicate() {
+                    @Override
+                    public TagKey<Item> getTag() {
+                        return tag;
+                    }
+
+                    @Override
+                    public boolean test(Inventory inventory, int slot, PlayerEntity player) {
+                        return inventory.getStack(slot).isIn(tag) && innerPredicate.test(inventory, slot, player);
+                    }
+                };
+            }
+        }
+    }
+
+    /**
+     * Class-based version of {@link Predicate} that succeeds only for instances of the given item class.
+     */
+    @FunctionalInterface
+    interface ItemClassPredicate extends Predicate {
+        /**
+         * @return Item class associated with this {@link ItemClassPredicate}.
+         */
+        Class<?> getItemClass();
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        default boolean test(Inventory inventory, int slot, PlayerEntity player) {
+            return this.getItemClass().isInstance(inventory.getStack(slot).getItem());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        default ItemClassPredicate and(Predicate other) {
+            return ItemClassPredicate.of(this.getItemClass(), (i, s, p) -> this.test(i, s, p) && other.test(i, s, p));
+        }
+
+        /**
+         * Creates new {@link ItemClassPredicate} that succeeds only for instances of the given item class.
+         * @param itemClass Item class associated with new {@link ItemClassPredicate}.
+         * @return New {@link ItemClassPredicate} instance that succeeds only for instances of the given item class.
+         */
+        static ItemClassPredicate of(Class<?> itemClass) {
+            return ItemClassPredicate.of(itemClass, null);
+        }
+
+        /**
+         * Creates new {@link ItemClassPredicate} that succeeds only for instances of the given item class when {@code innerPredicate} succeeds.
+         * @param itemClass Item class associated with new {@link ItemClassPredicate}.
+         * @param innerPredicate Inner predicate.
+         * @return New {@link ItemClassPredicate} instance that succeeds only for instances of the given item class when {@code innerPredicate} succeeds.
+         */
+        static ItemClassPredicate of(Class<?> itemClass, @Nullable Predicate innerPredicate) {
+            if (innerPredicate == null) {
+                return () -> itemClass;
+            } else {
+                return new ItemClassPredicate() {
+                    @Override
+                    public Class<?> getItemClass() {
+                        return itemClass;
+                    }
+
+                    @Override
+                    public boolean test(Inventory inventory, int slot, PlayerEntity player) {
+                        return itemClass.isInstance(inventory.getStack(slot).getItem()) && innerPredicate.test(inventory, slot, player);
+                    }
+                };
+            }
+        }
+    }
+
+    /**
+     * Block entity-based version of {@link Predicate} that succeeds only for block items supported by the given block entity type.
+     */
+    @FunctionalInterface
+    interface BlockEntityTypePredicate extends Predicate {
+        /**
+         * @return Block entity type associated with this {@link BlockEntityTypePredicate}.
+         */
+        BlockEntityType<?> getBlockEntityType();
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        default boolean test(Inventory inventory, int slot, PlayerEntity player) {
+            return BlockEntityTypePredicate.supports(this.getBlockEntityType(), inventory.getStack(slot).getItem());
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        default BlockEntityTypePredicate and(Predicate other) {
+            return BlockEntityTypePredicate.of(this.getBlockEntityType(), (i, s, p) -> this.test(i, s, p) && other.test(i, s, p));
+        }
+
+        /**
+         * Creates new {@link BlockEntityTypePredicate} that succeeds only for block items supported by the given block entity type.
+         * @param blockEntityType Block entity type associated with new {@link BlockEntityTypePredicate}.
+         * @return New {@link BlockEntityTypePredicate} instance that succeeds only for block items supported by the given block entity type.
+         */
+        static BlockEntityTypePredicate of(BlockEntityType<?> blockEntityType) {
+            return BlockEntityTypePredicate.of(blockEntityType, null);
+        }
+
+        /**
+         * Creates new {@link BlockEntityTypePredicate} that succeeds only for block items supported by the given block entity type when {@code innerPredicate} succeeds.
+         * @param blockEntityType Block entity type associated with new {@link BlockEntityTypePredicate}.
+         * @param innerPredicate Inner predicate.
+         * @return New {@link BlockEntityTypePredicate} instance that succeeds only for block items supported by the given block entity type when {@code innerPredicate} succeeds.
+         */
+        static BlockEntityTypePredicate of(BlockEntityType<?> blockEntityType, @Nullable Predicate innerPredicate) {
+            if (innerPredicate == null) {
+                return () -> blockEntityType;
+            } else {
+                return new BlockEntityTypePredicate() {
+                    @Override
+                    public BlockEntityType<?> getBlockEntityType() {
+                        return blockEntityType;
+                    }
+
+                    @Override
+                    public boolean test(Inventory inventory, int slot, PlayerEntity player) {
+                        return BlockEntityTypePredicate.supports(blockEntityType, inventory.getStack(slot).getItem()) && innerPredicate.test(inventory, slot, player);
+                    }
+                };
+            }
+        }
+
+        /**
+         * Checks if the given {@code item} places a block supported by the given block entity type.
+         * @param blockEntityType Block entity type.
+         * @param item Item.
+         * @return {@code true} if the given {@code item} places a block supported by the given block entity type; otherwise, {@code false}.
+         */
+        static boolean supports(BlockEntityType<?> blockEntityType, Item item) {
+            return item instanceof BlockItem && blockEntityType.supports(((BlockItem)item).getBlock().getDefaultState());
+        }
+    }
+
     /**
      * Validator that checks if the given {@link InventoryViewer} should open an inventory view.
      */
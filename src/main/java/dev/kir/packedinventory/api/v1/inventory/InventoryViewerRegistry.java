@@ -34,6 +34,8 @@ public interface InventoryViewerRegistry {
 
     /**
      * Opens an inventory view at the selected {@code slot} within the target {@code inventory} ignoring all validation rules.
+     * Changes made to the stacks of the returned view in place are only guaranteed to be written back
+     * once either {@link Inventory#markDirty()} or {@link Inventory#onClose(PlayerEntity)} is called on the view.
      * @param inventory Inventory.
      * @param slot Inventory slot.
      * @param player Player.
@@ -43,6 +45,8 @@ public interface InventoryViewerRegistry {
 
     /**
      * Tries to open an inventory view at the selected {@code slot} within the target {@code inventory}.
+     * Changes made to the stacks of the returned view in place are only guaranteed to be written back
+     * once either {@link Inventory#markDirty()} or {@link Inventory#onClose(PlayerEntity)} is called on the view.
      * @param inventory Inventory.
      * @param slot Inventory slot.
      * @param player Player.
@@ -50,6 +54,38 @@ public interface InventoryViewerRegistry {
      */
     Optional<Either<Inventory, FailureReason>> view(Inventory inventory, int slot, PlayerEntity player);
 
+    /**
+     * Describes an inventory view at the selected {@code slot} within the target {@code inventory} ignoring all validation rules.
+     * Unlike {@link #forceView(Inventory, int, PlayerEntity)}, this method doesn't open the inventory view
+     * if the matching {@link InventoryViewer} is able to describe it on its own.
+     * @param inventory Inventory.
+     * @param slot Inventory slot.
+     * @param player Player.
+     * @return Metadata of the inventory view at the selected {@code slot} within the target {@code inventory}, if any; otherwise, {@link Optional#empty()}.
+     */
+    default Optional<InventoryViewMetadata> getViewMetadata(Inventory inventory, int slot, PlayerEntity player) {
+        return this.forceView(inventory, slot, player).map(InventoryViewMetadata::of);
+    }
+
+    /**
+     * Discards any cached resolution of the selected {@code slot} within the target {@code inventory}.
+     * Should be called after the contents of the {@code slot} have been modified in place.
+     * @param inventory Inventory.
+     * @param slot Inventory slot.
+     * @param player Player.
+     */
+    default void invalidate(Inventory inventory, int slot, PlayerEntity player) { }
+
+
+    /**
+     * Returns the number of registered entries whose predicates cannot be indexed,
+     * and thus have to be tested one by one for every slot.
+     * @return Number of registered entries whose predicates cannot be indexed, or {@code 0} if the registry doesn't keep track of it.
+     */
+    default int getFallbackEntryCount() {
+        return 0;
+    }
+
 
     /**
      * Registers the given {@code entry} in the registry.
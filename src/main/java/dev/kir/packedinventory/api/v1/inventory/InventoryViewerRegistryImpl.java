@@ -3,13 +3,23 @@ package dev.kir.packedinventory.api.v1.inventory;
 import com.mojang.datafixers.util.Either;
 import dev.kir.packedinventory.api.v1.FailureReason;
 import dev.kir.packedinventory.inventory.CombinedInventory;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.minecraft.block.Block;
+import net.minecraft.block.entity.BlockEntityType;
 import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.inventory.Inventory;
+import net.minecraft.item.BlockItem;
 import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.registry.tag.TagKey;
+import net.minecraft.server.MinecraftServer;
 import net.minecraft.util.Pair;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 final class InventoryViewerRegistryImpl implements InventoryViewerRegistry {
     public static final InventoryViewerRegistryImpl INSTANCE = new InventoryViewerRegistryImpl();
@@ -17,9 +27,36 @@ final class InventoryViewerRegistryImpl implements InventoryViewerRegistry {
     private final Map<Item, Entry> itemBasedInventoryViewers = new HashMap<>();
     private final Set<Entry> genericInventoryViewersSet = new HashSet<>();
     private final Deque<Entry> genericInventoryViewers = new ArrayDeque<>();
+    private final Set<Entry> indexedInventoryViewersSet = new HashSet<>();
+    private final Map<TagKey<Item>, Deque<Entry>> tagBasedInventoryViewers = new HashMap<>();
+    private final Map<Class<?>, Deque<Entry>> classBasedInventoryViewers = new HashMap<>();
+    private final Map<BlockEntityType<?>, Deque<Entry>> blockEntityTypeBasedInventoryViewers = new HashMap<>();
+    private final Map<Class<?>, List<Deque<Entry>>> classBasedInventoryViewersByItemClass = new ConcurrentHashMap<>();
+    private final Map<Block, List<Deque<Entry>>> blockEntityTypeBasedInventoryViewersByBlock = new ConcurrentHashMap<>();
+    private final Object2IntMap<Entry> registrationOrder = new Object2IntOpenHashMap<>();
+    private int registrationCount;
+    private final Map<CachedViewKey, CachedView> cachedViews = new HashMap<>();
+
+    private InventoryViewerRegistryImpl() {
+        // Cached resolutions hold on to both players and their views,
+        // so none of them should outlive the tick they were made in.
+        ServerTickEvents.END_SERVER_TICK.register(server -> this.cachedViews.clear());
+    }
 
     @Override
     public Optional<Inventory> forceView(Inventory inventory, int slot, PlayerEntity player) {
+        CachedView cachedView = this.getCachedView(inventory, slot, player);
+        if (cachedView == null) {
+            return this.computeForcedView(inventory, slot, player);
+        }
+
+        if (cachedView.forcedView == null) {
+            cachedView.forcedView = this.computeForcedView(inventory, slot, player);
+        }
+        return cachedView.forcedView;
+    }
+
+    private Optional<Inventory> computeForcedView(Inventory inventory, int slot, PlayerEntity player) {
         Entry entry = this.findViewerEntry(inventory, slot, player);
         if (entry == null) {
             return Optional.empty();
@@ -27,13 +64,62 @@ final class InventoryViewerRegistryImpl implements InventoryViewerRegistry {
         return Optional.of(entry.getInventoryViewer().view(inventory, slot, player));
     }
 
+    @Override
+    public Optional<InventoryViewMetadata> getViewMetadata(Inventory inventory, int slot, PlayerEntity player) {
+        // Metadata is a snapshot of the view's contents, which may change without
+        // invalidating the cached entry, so it's never cached on its own.
+        CachedView cachedView = this.getCachedView(inventory, slot, player);
+        if (cachedView != null && cachedView.forcedView != null) {
+            return cachedView.forcedView.map(InventoryViewMetadata::of);
+        }
+
+        Entry entry = this.findViewerEntry(inventory, slot, player);
+        if (cachedView != null) {
+            cachedView.hasView = entry != null;
+        }
+        if (entry == null) {
+            return Optional.empty();
+        }
+
+        InventoryViewer viewer = entry.getInventoryViewer();
+        if (viewer instanceof InventoryViewer.MetadataProvider) {
+            return Optional.of(((InventoryViewer.MetadataProvider)viewer).getMetadata(inventory, slot, player));
+        }
+
+        Optional<Inventory> view = Optional.of(viewer.view(inventory, slot, player));
+        if (cachedView != null) {
+            cachedView.forcedView = view;
+        }
+        return view.map(InventoryViewMetadata::of);
+    }
+
     @Override
     public boolean hasView(Inventory inventory, int slot, PlayerEntity player) {
-        return this.findViewerEntry(inventory, slot, player) != null;
+        CachedView cachedView = this.getCachedView(inventory, slot, player);
+        if (cachedView == null) {
+            return this.findViewerEntry(inventory, slot, player) != null;
+        }
+
+        if (cachedView.hasView == null) {
+            cachedView.hasView = this.findViewerEntry(inventory, slot, player) != null;
+        }
+        return cachedView.hasView;
     }
 
     @Override
     public Optional<Either<Inventory, FailureReason>> view(Inventory inventory, int slot, PlayerEntity player) {
+        CachedView cachedView = this.getCachedView(inventory, slot, player);
+        if (cachedView == null) {
+            return this.computeView(inventory, slot, player);
+        }
+
+        if (cachedView.view == null) {
+            cachedView.view = this.computeView(inventory, slot, player);
+        }
+        return cachedView.view;
+    }
+
+    private Optional<Either<Inventory, FailureReason>> computeView(Inventory inventory, int slot, PlayerEntity player) {
         Entry entry = this.findViewerEntry(inventory, slot, player);
         if (entry == null) {
             return Optional.empty();
@@ -66,23 +152,35 @@ final class InventoryViewerRegistryImpl implements InventoryViewerRegistry {
             }
 
             InventoryViewer.ExtendedValidator extendedValidator = (InventoryViewer.ExtendedValidator)entry.getValidator();
-            while (true) {
-                Inventory extendedInventory = CombinedInventory.of(inventories);
-                reason = extendedValidator.validate(inventory, slot, player, extendedInventory);
-                if (reason == null) {
-                    break;
-                }
+            CombinedInventory extendedInventory = CombinedInventory.appendable(inventories);
+            reason = extendedValidator.validate(inventory, slot, player, extendedInventory);
 
-                boolean wasAdded = innerViewers.removeIf(x -> {
-                    if (((InventoryViewer.ExtendedValidator)x.getLeft().getValidator()).validate(inventory, x.getRight(), player, extendedInventory) == null) {
-                        inventories.add(x.getLeft().getInventoryViewer().view(inventory, x.getRight(), player));
-                        return true;
+            // The extended inventory only ever grows, and a viewer's only input that can change here is
+            // the extended inventory itself. So, a viewer that has failed its validation is only validated
+            // again once something has been appended since, and never twice against the same contents.
+            int version = 0;
+            int[] validatedVersions = new int[innerViewers.size()];
+            Arrays.fill(validatedVersions, -1);
+            boolean hasPendingViewers = reason != null;
+            while (hasPendingViewers) {
+                hasPendingViewers = false;
+                for (int i = 0; i < innerViewers.size() && reason != null; ++i) {
+                    Pair<Entry, Integer> innerViewer = innerViewers.get(i);
+                    if (innerViewer == null || validatedVersions[i] == version) {
+                        continue;
                     }
-                    return false;
-                });
 
-                if (!wasAdded) {
-                    break;
+                    validatedVersions[i] = version;
+                    InventoryViewer.ExtendedValidator innerValidator = (InventoryViewer.ExtendedValidator)innerViewer.getLeft().getValidator();
+                    if (innerValidator.validate(inventory, innerViewer.getRight(), player, extendedInventory) != null) {
+                        continue;
+                    }
+
+                    extendedInventory.append(innerViewer.getLeft().getInventoryViewer().view(inventory, innerViewer.getRight(), player));
+                    innerViewers.set(i, null);
+                    ++version;
+                    hasPendingViewers = true;
+                    reason = extendedValidator.validate(inventory, slot, player, extendedInventory);
                 }
             }
         }
@@ -93,28 +191,157 @@ final class InventoryViewerRegistryImpl implements InventoryViewerRegistry {
         return Optional.of(Either.left(entry.getInventoryViewer().view(inventory, slot, player)));
     }
 
+    @Override
+    public void invalidate(Inventory inventory, int slot, PlayerEntity player) {
+        if (!InventoryViewerRegistryImpl.canCacheViews(player) || this.cachedViews.isEmpty()) {
+            return;
+        }
+
+        // The same underlying slot may be reached through different inventories
+        // (e.g., a combined inventory and one of its parts), so every entry
+        // resolved to the same inner slot is dropped.
+        CachedViewKey invalidatedKey = CachedViewKey.of(player, inventory, slot);
+        if (invalidatedKey != null) {
+            this.cachedViews.keySet().removeIf(invalidatedKey::hasSameInnerSlot);
+        }
+    }
+
+    private @Nullable CachedView getCachedView(Inventory inventory, int slot, PlayerEntity player) {
+        if (!InventoryViewerRegistryImpl.canCacheViews(player)) {
+            return null;
+        }
+
+        CachedViewKey key = CachedViewKey.of(player, inventory, slot);
+        if (key == null) {
+            return null;
+        }
+
+        // Resolutions are only reused within a single server tick,
+        // and only as long as neither the stack in question nor the player's inventory has changed.
+        ItemStack stack = inventory.getStack(slot);
+        int changeCount = player.getInventory().getChangeCount();
+        CachedView cachedView = this.cachedViews.get(key);
+        if (cachedView == null || !cachedView.isValid(stack, changeCount)) {
+            cachedView = new CachedView(stack, changeCount);
+            this.cachedViews.put(key, cachedView);
+        }
+        return cachedView;
+    }
+
+    private static boolean canCacheViews(PlayerEntity player) {
+        MinecraftServer server = player.getServer();
+        return server != null && !player.getWorld().isClient && server.isOnThread();
+    }
+
     private @Nullable Entry findViewerEntry(Inventory inventory, int slot, PlayerEntity player) {
-        Entry entry = this.itemBasedInventoryViewers.get(inventory.getStack(slot).getItem());
+        ItemStack stack = inventory.getStack(slot);
+        Entry entry = this.itemBasedInventoryViewers.get(stack.getItem());
         if (entry != null && entry.getPredicate().test(inventory, slot, player)) {
             return entry;
         }
 
+        // Just like generic entries, indexed ones are tried starting from the most recently registered one,
+        // so only generic entries registered after the best indexed match need to be tested.
+        Entry bestEntry = null;
+        int bestOrder = -1;
+        for (Deque<Entry> indexedEntries : this.getIndexedEntries(stack)) {
+            for (Entry indexedEntry : indexedEntries) {
+                int order = this.registrationOrder.getInt(indexedEntry);
+                if (order <= bestOrder) {
+                    break;
+                }
+
+                if (indexedEntry.getPredicate().test(inventory, slot, player)) {
+                    bestEntry = indexedEntry;
+                    bestOrder = order;
+                    break;
+                }
+            }
+        }
+
         for (Entry genericEntry : this.genericInventoryViewers) {
+            if (this.registrationOrder.getInt(genericEntry) <= bestOrder) {
+                break;
+            }
+
             if (genericEntry.getPredicate().test(inventory, slot, player)) {
                 return genericEntry;
             }
         }
-        return null;
+        return bestEntry;
+    }
+
+    private List<Deque<Entry>> getIndexedEntries(ItemStack stack) {
+        if (this.indexedInventoryViewersSet.isEmpty() || stack.isEmpty()) {
+            return List.of();
+        }
+
+        List<Deque<Entry>> indexedEntries = new ArrayList<>();
+        if (!this.tagBasedInventoryViewers.isEmpty()) {
+            stack.streamTags().forEach(tag -> {
+                Deque<Entry> entries = this.tagBasedInventoryViewers.get(tag);
+                if (entries != null) {
+                    indexedEntries.add(entries);
+                }
+            });
+        }
+
+        Item item = stack.getItem();
+        if (!this.classBasedInventoryViewers.isEmpty()) {
+            indexedEntries.addAll(this.classBasedInventoryViewersByItemClass.computeIfAbsent(item.getClass(), itemClass -> {
+                List<Deque<Entry>> entries = new ArrayList<>();
+                for (Map.Entry<Class<?>, Deque<Entry>> classEntries : this.classBasedInventoryViewers.entrySet()) {
+                    if (classEntries.getKey().isAssignableFrom(itemClass)) {
+                        entries.add(classEntries.getValue());
+                    }
+                }
+                return entries;
+            }));
+        }
+
+        if (!this.blockEntityTypeBasedInventoryViewers.isEmpty() && item instanceof BlockItem) {
+            indexedEntries.addAll(this.blockEntityTypeBasedInventoryViewersByBlock.computeIfAbsent(((BlockItem)item).getBlock(), block -> {
+                List<Deque<Entry>> entries = new ArrayList<>();
+                for (Map.Entry<BlockEntityType<?>, Deque<Entry>> blockEntityTypeEntries : this.blockEntityTypeBasedInventoryViewers.entrySet()) {
+                    if (blockEntityTypeEntries.getKey().supports(block.getDefaultState())) {
+                        entries.add(blockEntityTypeEntries.getValue());
+                    }
+                }
+                return entries;
+            }));
+        }
+        return indexedEntries;
+    }
+
+    @Override
+    public int getFallbackEntryCount() {
+        return this.genericInventoryViewers.size();
     }
 
     @Override
     public Entry register(Entry entry) {
-        if (entry.getPredicate() instanceof InventoryViewer.ItemPredicate) {
-            for (Item item : ((InventoryViewer.ItemPredicate)entry.getPredicate()).getItems()) {
+        this.cachedViews.clear();
+        InventoryViewer.Predicate predicate = entry.getPredicate();
+        if (predicate instanceof InventoryViewer.ItemPredicate) {
+            for (Item item : ((InventoryViewer.ItemPredicate)predicate).getItems()) {
                 this.itemBasedInventoryViewers.put(item, entry);
             }
+        } else if (predicate instanceof InventoryViewer.TagPredicate || predicate instanceof InventoryViewer.ItemClassPredicate || predicate instanceof InventoryViewer.BlockEntityTypePredicate) {
+            if (this.indexedInventoryViewersSet.add(entry)) {
+                this.registrationOrder.put(entry, this.registrationCount++);
+                if (predicate instanceof InventoryViewer.TagPredicate) {
+                    this.tagBasedInventoryViewers.computeIfAbsent(((InventoryViewer.TagPredicate)predicate).getTag(), x -> new ArrayDeque<>()).push(entry);
+                } else if (predicate instanceof InventoryViewer.ItemClassPredicate) {
+                    this.classBasedInventoryViewers.computeIfAbsent(((InventoryViewer.ItemClassPredicate)predicate).getItemClass(), x -> new ArrayDeque<>()).push(entry);
+                    this.classBasedInventoryViewersByItemClass.clear();
+                } else {
+                    this.blockEntityTypeBasedInventoryViewers.computeIfAbsent(((InventoryViewer.BlockEntityTypePredicate)predicate).getBlockEntityType(), x -> new ArrayDeque<>()).push(entry);
+                    this.blockEntityTypeBasedInventoryViewersByBlock.clear();
+                }
+            }
         } else {
             if (this.genericInventoryViewersSet.add(entry)) {
+                this.registrationOrder.put(entry, this.registrationCount++);
                 this.genericInventoryViewers.push(entry);
             }
         }
@@ -128,6 +355,109 @@ final class InventoryViewerRegistryImpl implements InventoryViewerRegistry {
 
     @Override
     public boolean unregister(InventoryViewer viewer) {
-        return this.itemBasedInventoryViewers.entrySet().removeIf(x -> x.getValue().getInventoryViewer() == viewer) | this.genericInventoryViewersSet.removeIf(x -> x.getInventoryViewer() == viewer) && this.genericInventoryViewers.removeIf(x -> x.getInventoryViewer() == viewer);
+        this.cachedViews.clear();
+        boolean wasIndexed = this.indexedInventoryViewersSet.removeIf(x -> x.getInventoryViewer() == viewer);
+        if (wasIndexed) {
+            this.tagBasedInventoryViewers.values().forEach(x -> x.removeIf(y -> y.getInventoryViewer() == viewer));
+            this.classBasedInventoryViewers.values().forEach(x -> x.removeIf(y -> y.getInventoryViewer() == viewer));
+            this.blockEntityTypeBasedInventoryViewers.values().forEach(x -> x.removeIf(y -> y.getInventoryViewer() == viewer));
+        }
+
+        boolean wasItemBased = this.itemBasedInventoryViewers.entrySet().removeIf(x -> x.getValue().getInventoryViewer() == viewer);
+        boolean wasGeneric = this.genericInventoryViewersSet.removeIf(x -> x.getInventoryViewer() == viewer);
+        if (wasGeneric) {
+            this.genericInventoryViewers.removeIf(x -> x.getInventoryViewer() == viewer);
+        }
+
+        this.registrationOrder.keySet().removeIf(x -> x.getInventoryViewer() == viewer);
+        return wasIndexed || wasItemBased || wasGeneric;
+    }
+
+    private static final class CachedViewKey {
+        private final PlayerEntity player;
+        private final List<Inventory> inventories;
+        private final int slot;
+        private final Inventory innerInventory;
+        private final int innerSlot;
+
+        private CachedViewKey(PlayerEntity player, List<Inventory> inventories, int slot, Inventory innerInventory, int innerSlot) {
+            this.player = player;
+            this.inventories = inventories;
+            this.slot = slot;
+            this.innerInventory = innerInventory;
+            this.innerSlot = innerSlot;
+        }
+
+        private static @Nullable CachedViewKey of(PlayerEntity player, Inventory inventory, int slot) {
+            if (!(inventory instanceof CombinedInventory)) {
+                return new CachedViewKey(player, List.of(inventory), slot, inventory, slot);
+            }
+
+            // Combined inventories are recreated for every action, so they're keyed
+            // by the inventories they consist of, rather than by their own identity.
+            CombinedInventory combinedInventory = (CombinedInventory)inventory;
+            Inventory innerInventory = combinedInventory.getInnerInventory(slot);
+            if (innerInventory == null) {
+                return null;
+            }
+            return new CachedViewKey(player, CombinedInventory.asStream(inventory).toList(), slot, innerInventory, combinedInventory.getInnerSlot(slot));
+        }
+
+        private boolean hasSameInnerSlot(CachedViewKey other) {
+            return this.player == other.player && this.innerInventory == other.innerInventory && this.innerSlot == other.innerSlot;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (!(o instanceof CachedViewKey)) {
+                return false;
+            }
+
+            CachedViewKey other = (CachedViewKey)o;
+            if (this.player != other.player || this.slot != other.slot || this.inventories.size() != other.inventories.size()) {
+                return false;
+            }
+
+            // Inventories are compared by reference, since a view may be moved
+            // to another stack while it's still used as a key.
+            for (int i = 0; i < this.inventories.size(); ++i) {
+                if (this.inventories.get(i) != other.inventories.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = System.identityHashCode(this.player);
+            for (Inventory inventory : this.inventories) {
+                hash = 31 * hash + System.identityHashCode(inventory);
+            }
+            return 31 * hash + this.slot;
+        }
+    }
+
+    private static final class CachedView {
+        private final ItemStack stack;
+        private final int count;
+        private final int changeCount;
+        private @Nullable Boolean hasView;
+        private @Nullable Optional<Inventory> forcedView;
+        private @Nullable Optional<Either<Inventory, FailureReason>> view;
+
+        private CachedView(ItemStack stack, int changeCount) {
+            this.stack = stack;
+            this.count = stack.getCount();
+            this.changeCount = changeCount;
+        }
+
+        private boolean isValid(ItemStack stack, int changeCount) {
+            return this.stack == stack && this.count == stack.getCount() && this.changeCount == changeCount;
+        }
     }
 }
@@ -31,7 +31,7 @@ final class TransferInventoryAction implements InventoryAction {
 
     @Override
     public boolean invoke(ServerPlayerEntity player) {
-        return TransferInventoryAction.invoke(player, ListUtil.copyOf(this.fromSlots), ListUtil.copyOf(this.toSlots), this.options);
+        return InventoryViewUtil.withViewCache(() -> TransferInventoryAction.invoke(player, ListUtil.copyOf(this.fromSlots), ListUtil.copyOf(this.toSlots), this.options));
     }
 
     @Override
@@ -1,8 +1,10 @@
 package dev.kir.packedinventory.api.v1.item;
 
 import dev.kir.packedinventory.inventory.EmptyInventory;
+import dev.kir.packedinventory.inventory.InventorySnapshot;
 import dev.kir.packedinventory.inventory.ListInventory;
 import dev.kir.packedinventory.util.inventory.InventoryUtil;
+import dev.kir.packedinventory.util.inventory.NbtItemListUtil;
 import net.minecraft.inventory.Inventory;
 import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.NbtCompound;
@@ -84,19 +86,8 @@ public class GenericContainerTooltipSyncData implements TooltipSyncData {
             return;
         }
 
-        DefaultedList<ItemStack> inventory = DefaultedList.ofSize(size, ItemStack.EMPTY);
         NbtList items = nbt.getList(InventoryUtil.ITEMS_KEY, NbtElement.COMPOUND_TYPE);
-        for (NbtElement item : items) {
-            if (!(item instanceof NbtCompound)) {
-                continue;
-            }
-
-            int slot = ((NbtCompound)item).getByte(InventoryUtil.SLOT_KEY) & 255;
-            if (slot < size) {
-                inventory.set(slot, ItemStack.fromNbt((NbtCompound)item));
-            }
-        }
-        this.inventory = ListInventory.wrap(inventory);
+        this.inventory = InventorySnapshot.of(items, size, true);
     }
 
     /**
@@ -112,6 +103,7 @@ public class GenericContainerTooltipSyncData implements TooltipSyncData {
             return;
         }
 
+        boolean isWide = NbtItemListUtil.isWide(size);
         NbtList items = new NbtList();
         for (int i = 0; i < size; ++i) {
             ItemStack stack = inventory.getStack(i);
@@ -121,7 +113,7 @@ public class GenericContainerTooltipSyncData implements TooltipSyncData {
 
             NbtCompound stackNbt = new NbtCompound();
             stack.writeNbt(stackNbt);
-            stackNbt.putByte(InventoryUtil.SLOT_KEY, (byte)i);
+            NbtItemListUtil.putSlot(stackNbt, i, isWide);
 
             items.add(stackNbt);
         }
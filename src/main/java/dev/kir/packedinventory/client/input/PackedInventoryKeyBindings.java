@@ -21,6 +21,7 @@ public final class PackedInventoryKeyBindings {
     public static final KeyBinding INTERACT_WITH_ITEM;
     public static final KeyBinding INTERACT_WITH_ITEM_MODIFIER;
     public static final KeyBinding EXTRACT_FROM_ITEM;
+    public static final KeyBinding SORT_ITEM;
     public static final KeyBinding INVERT_TOOLTIP_VISIBILITY;
     public static final KeyBinding INVERT_TOOLTIP_COMPACT_MODE;
 
@@ -28,25 +29,28 @@ public final class PackedInventoryKeyBindings {
         INTERACT_WITH_ITEM = register("interact_with_item", GLFW.GLFW_KEY_K, PackedInventoryKeyBindings::requestEdit);
         INTERACT_WITH_ITEM_MODIFIER = register("interact_with_item_modifier", GLFW.GLFW_KEY_LEFT_CONTROL);
         EXTRACT_FROM_ITEM = register("extract_from_item", GLFW.GLFW_KEY_L);
+        SORT_ITEM = register("sort_item", GLFW.GLFW_KEY_UNKNOWN, PackedInventoryKeyBindings::requestSort);
         INVERT_TOOLTIP_VISIBILITY = register("invert_tooltip_visibility", GLFW.GLFW_KEY_LEFT_SHIFT);
         INVERT_TOOLTIP_COMPACT_MODE = register("invert_tooltip_compact_mode", GLFW.GLFW_KEY_C);
     }
 
     private static void requestEdit() {
+        getSelectedSlot().ifPresent(x -> InventoryAction.handle(x).invoke());
+    }
+
+    private static void requestSort() {
+        getSelectedSlot().ifPresent(x -> InventoryAction.sort(x).invoke());
+    }
+
+    private static OptionalInt getSelectedSlot() {
         PlayerEntity player = MinecraftClient.getInstance().player;
         if (player == null) {
-            return;
+            return OptionalInt.empty();
         }
 
         PlayerInventory playerInventory = player.getInventory();
         int selectedSlot = playerInventory.selectedSlot;
-
-        OptionalInt screenHandlerSlot = player.currentScreenHandler.getSlotIndex(playerInventory, selectedSlot);
-        if (screenHandlerSlot.isEmpty()) {
-            return;
-        }
-
-        InventoryAction.handle(screenHandlerSlot.getAsInt()).invoke();
+        return player.currentScreenHandler.getSlotIndex(playerInventory, selectedSlot);
     }
 
     private static KeyBinding register(String name, int code) {
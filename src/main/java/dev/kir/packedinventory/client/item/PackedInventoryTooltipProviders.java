@@ -5,7 +5,6 @@ import dev.kir.packedinventory.api.v1.config.GenericTooltipConfig;
 import dev.kir.packedinventory.api.v1.config.PackedInventoryApiConfig;
 import dev.kir.packedinventory.api.v1.item.*;
 import dev.kir.packedinventory.config.FilledMapTooltipConfig;
-import dev.kir.packedinventory.inventory.ListInventory;
 import dev.kir.packedinventory.item.FilledMapTooltipData;
 import dev.kir.packedinventory.util.inventory.InventoryUtil;
 import dev.kir.packedinventory.util.item.ItemUtil;
@@ -14,6 +13,7 @@ import net.fabricmc.api.Environment;
 import net.minecraft.block.Block;
 import net.minecraft.block.ShulkerBoxBlock;
 import net.minecraft.inventory.Inventory;
+import net.minecraft.item.ItemStack;
 import net.minecraft.item.Items;
 import net.minecraft.util.DyeColor;
 
@@ -58,11 +58,12 @@ public final class PackedInventoryTooltipProviders {
                 .modifyTooltipText((text, stack, context) -> text.clear(TooltipText.Part.ADDITIONAL))
                 .tooltipData((stack, context) -> {
                     GenericTooltipConfig cfg = config.getTooltipConfigOrDefault(Items.SHULKER_BOX);
-                    Inventory inventory = ListInventory.wrap(cfg.isCompact() ? InventoryUtil.zip(InventoryUtil.getInventory(stack)) : InventoryUtil.getInventory(stack));
-                    if (!cfg.shouldShowWhenEmpty() && inventory.isEmpty()) {
+                    if (!cfg.shouldShowWhenEmpty() && InventoryUtil.isInventoryEmpty(stack)) {
                         return null;
                     }
 
+                    Inventory inventory = getInventory(stack, cfg);
+
                     DyeColor color = cfg.usePredefinedColor() ? ItemUtil.getColor(stack) : null;
                     if (color == null) {
                         color = cfg.color();
@@ -124,11 +125,12 @@ public final class PackedInventoryTooltipProviders {
                 .modifyTooltipText((text, stack, context) -> text.clear(TooltipText.Part.LORE))
                 .tooltipData((stack, context) -> {
                     GenericTooltipConfig cfg = config.getTooltipConfigOrDefault(stack.getItem());
-                    Inventory inventory = ListInventory.wrap(cfg.isCompact() ? InventoryUtil.zip(InventoryUtil.getInventory(stack)) : InventoryUtil.getInventory(stack));
-                    if (!cfg.shouldShowWhenEmpty() && inventory.isEmpty()) {
+                    if (!cfg.shouldShowWhenEmpty() && InventoryUtil.isInventoryEmpty(stack)) {
                         return null;
                     }
 
+                    Inventory inventory = getInventory(stack, cfg);
+
                     DyeColor color = cfg.usePredefinedColor() ? ItemUtil.getColor(stack) : null;
                     if (color == null) {
                         color = cfg.color();
@@ -139,5 +141,19 @@ public final class PackedInventoryTooltipProviders {
         );
     }
 
+    private static Inventory getInventory(ItemStack stack, GenericTooltipConfig config) {
+        if (config.isCompact()) {
+            return InventoryUtil.getInventorySnapshot(stack).zip();
+        }
+
+        // Large containers can hold far more items than a tooltip of a fixed size is able to display,
+        // so only decode the visible part of their inventory.
+        int size = InventoryUtil.getInventorySize(stack);
+        if (config.rows() > 0 && config.columns() > 0) {
+            size = Math.min(size, config.rows() * config.columns());
+        }
+        return InventoryUtil.getInventorySnapshot(stack, size);
+    }
+
     private PackedInventoryTooltipProviders() { }
 }
@@ -1,21 +1,58 @@
 package dev.kir.packedinventory.inventory;
 
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
 import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.entity.player.PlayerInventory;
 import net.minecraft.inventory.Inventory;
 import net.minecraft.item.ItemStack;
 
+import org.jetbrains.annotations.Nullable;
+
 import java.util.*;
-import java.util.function.BiFunction;
 import java.util.stream.Stream;
 
 public final class CombinedInventory implements Inventory {
-    private final Collection<Inventory> inventories;
-    private final int size;
-    private final int maxCountPerStack;
+    private static final byte UNKNOWN = 0;
+    private static final byte EMPTY = 1;
+    private static final byte NON_EMPTY = 2;
+
+    private final List<Inventory> inventories;
+    private final Reference2IntMap<Inventory> inventoryOffsets;
+    private Inventory[] innerInventories;
+    private int[] offsets;
+    private boolean[] touchedInventories;
+    private byte[] emptiness;
+    private int[] changeCounts;
+    private int count;
+    private int size;
+    private int maxCountPerStack;
 
     private CombinedInventory(Collection<Inventory> inventories) {
-        this.inventories = inventories;
-        this.size = inventories.stream().map(Inventory::size).reduce(0, Integer::sum);
+        this.inventories = new ArrayList<>(inventories);
+        this.innerInventories = inventories.toArray(Inventory[]::new);
+        this.count = this.innerInventories.length;
+
+        // offsets[i] is the first slot of the i-th inner inventory,
+        // while the entry after the last inner inventory holds the total size of the combined inventory.
+        this.offsets = new int[this.count + 1];
+        for (int i = 0; i < this.count; ++i) {
+            this.offsets[i + 1] = this.offsets[i] + this.innerInventories[i].size();
+        }
+
+        this.size = this.offsets[this.count];
+
+        // Inner inventories are keyed by reference, since views may change
+        // the stack they're backed by (and with it, their equality) over time.
+        this.inventoryOffsets = new Reference2IntOpenHashMap<>(this.count);
+        this.inventoryOffsets.defaultReturnValue(-1);
+        for (int i = 0; i < this.count; ++i) {
+            this.inventoryOffsets.putIfAbsent(this.innerInventories[i], this.offsets[i]);
+        }
+
+        this.touchedInventories = new boolean[this.count];
+        this.emptiness = new byte[this.count];
+        this.changeCounts = new int[this.count];
         this.maxCountPerStack = inventories.stream().map(Inventory::getMaxCountPerStack).max(Comparator.comparingInt(a -> a)).orElse(MAX_COUNT_PER_STACK);
     }
 
@@ -43,6 +80,34 @@ public final class CombinedInventory implements Inventory {
         };
     }
 
+    public static CombinedInventory appendable(Collection<Inventory> inventories) {
+        return new CombinedInventory(inventories.stream().flatMap(CombinedInventory::asStream).toList());
+    }
+
+    public void append(Inventory inventory) {
+        // Slots of the inventories that are already here keep their indices,
+        // so the combined inventory can be grown without being rebuilt.
+        CombinedInventory.asStream(inventory).forEach(this::appendInnerInventory);
+    }
+
+    private void appendInnerInventory(Inventory inventory) {
+        if (this.count == this.innerInventories.length) {
+            int capacity = Math.max(4, this.count * 2);
+            this.innerInventories = Arrays.copyOf(this.innerInventories, capacity);
+            this.offsets = Arrays.copyOf(this.offsets, capacity + 1);
+            this.touchedInventories = Arrays.copyOf(this.touchedInventories, capacity);
+            this.emptiness = Arrays.copyOf(this.emptiness, capacity);
+            this.changeCounts = Arrays.copyOf(this.changeCounts, capacity);
+        }
+
+        this.inventories.add(inventory);
+        this.innerInventories[this.count] = inventory;
+        this.inventoryOffsets.putIfAbsent(inventory, this.offsets[this.count]);
+        this.offsets[this.count + 1] = this.offsets[this.count] + inventory.size();
+        this.size = this.offsets[++this.count];
+        this.maxCountPerStack = this.count == 1 ? inventory.getMaxCountPerStack() : Math.max(this.maxCountPerStack, inventory.getMaxCountPerStack());
+    }
+
     public static Stream<Inventory> asStream(Inventory inventory) {
         return inventory instanceof CombinedInventory ? ((CombinedInventory)inventory).inventories.stream() : Stream.of(inventory);
     }
@@ -54,41 +119,119 @@ public final class CombinedInventory implements Inventory {
 
     @Override
     public boolean isEmpty() {
-        return this.inventories.stream().allMatch(Inventory::isEmpty);
+        for (int i = 0; i < this.count; ++i) {
+            if (!this.isInventoryEmpty(i)) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    protected <T> T execute(int slot, BiFunction<Inventory, Integer, T> func, T defaultValue) {
-        Inventory currentInventory;
-        for (Iterator<Inventory> iterator = this.inventories.iterator(); iterator.hasNext(); slot -= currentInventory.size()) {
-            currentInventory = iterator.next();
-            if (slot < currentInventory.size()) {
-                return func.apply(currentInventory, slot);
+    private boolean isInventoryEmpty(int i) {
+        // Only the player's inventory tracks its changes, so it's the only one
+        // whose emptiness can be cached without going stale.
+        Inventory inventory = this.innerInventories[i];
+        if (!(inventory instanceof PlayerInventory)) {
+            return inventory.isEmpty();
+        }
+
+        int changeCount = ((PlayerInventory)inventory).getChangeCount();
+        if (this.emptiness[i] == UNKNOWN || this.changeCounts[i] != changeCount) {
+            this.emptiness[i] = inventory.isEmpty() ? EMPTY : NON_EMPTY;
+            this.changeCounts[i] = changeCount;
+        }
+        return this.emptiness[i] == EMPTY;
+    }
+
+    private void touch(int i) {
+        this.touchedInventories[i] = true;
+        this.emptiness[i] = UNKNOWN;
+    }
+
+    public int getOffset(Inventory inventory) {
+        int offset = this.inventoryOffsets.getInt(inventory);
+        if (offset >= 0) {
+            return offset;
+        }
+
+        // Different views of the same stack are still considered equal.
+        for (int i = 0; i < this.count; ++i) {
+            if (inventory.equals(this.innerInventories[i])) {
+                return this.offsets[i];
             }
         }
-        return defaultValue;
+        return -1;
+    }
+
+    public @Nullable Inventory getInnerInventory(int slot) {
+        int i = this.indexOfInventory(slot);
+        return i < 0 ? null : this.innerInventories[i];
+    }
+
+    public int getInnerSlot(int slot) {
+        int i = this.indexOfInventory(slot);
+        return i < 0 ? -1 : slot - this.offsets[i];
+    }
+
+    private int indexOfInventory(int slot) {
+        if (slot < 0 || slot >= this.size) {
+            return -1;
+        }
+
+        // Looks for the last inventory that starts at or before the given slot,
+        // which also skips over any empty inventories sharing the same offset.
+        int low = 0;
+        int high = this.count - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (this.offsets[mid] <= slot) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
     }
 
     @Override
     public ItemStack getStack(int slot) {
-        return this.execute(slot, Inventory::getStack, ItemStack.EMPTY);
+        int i = this.indexOfInventory(slot);
+        if (i < 0) {
+            return ItemStack.EMPTY;
+        }
+
+        return this.innerInventories[i].getStack(slot - this.offsets[i]);
     }
 
     @Override
     public ItemStack removeStack(int slot, int amount) {
-        return this.execute(slot, (inv, i) -> inv.removeStack(i, amount), ItemStack.EMPTY);
+        int i = this.indexOfInventory(slot);
+        if (i < 0) {
+            return ItemStack.EMPTY;
+        }
+
+        this.touch(i);
+        return this.innerInventories[i].removeStack(slot - this.offsets[i], amount);
     }
 
     @Override
     public ItemStack removeStack(int slot) {
-        return this.execute(slot, Inventory::removeStack, ItemStack.EMPTY);
+        int i = this.indexOfInventory(slot);
+        if (i < 0) {
+            return ItemStack.EMPTY;
+        }
+
+        this.touch(i);
+        return this.innerInventories[i].removeStack(slot - this.offsets[i]);
     }
 
     @Override
     public void setStack(int slot, ItemStack stack) {
-        this.execute(slot, (inv, i) -> {
-            inv.setStack(i, stack);
-            return stack;
-        }, ItemStack.EMPTY);
+        int i = this.indexOfInventory(slot);
+        if (i >= 0) {
+            this.touch(i);
+            this.innerInventories[i].setStack(slot - this.offsets[i], stack);
+        }
     }
 
     @Override
@@ -98,7 +241,14 @@ public final class CombinedInventory implements Inventory {
 
     @Override
     public void markDirty() {
-        this.inventories.forEach(Inventory::markDirty);
+        // Only inventories written to through this one need to be marked dirty.
+        // Touched inventories stay touched, since the caller may keep modifying them.
+        for (int i = 0; i < this.count; ++i) {
+            if (this.touchedInventories[i]) {
+                this.innerInventories[i].markDirty();
+                this.emptiness[i] = UNKNOWN;
+            }
+        }
     }
 
     @Override
@@ -118,11 +268,15 @@ public final class CombinedInventory implements Inventory {
 
     @Override
     public boolean isValid(int slot, ItemStack stack) {
-        return this.execute(slot, (inv, i) -> inv.isValid(i, stack), false);
+        int i = this.indexOfInventory(slot);
+        return i >= 0 && this.innerInventories[i].isValid(slot - this.offsets[i], stack);
     }
 
     @Override
     public void clear() {
-        this.inventories.forEach(Inventory::clear);
+        for (int i = 0; i < this.count; ++i) {
+            this.touch(i);
+            this.innerInventories[i].clear();
+        }
     }
 }
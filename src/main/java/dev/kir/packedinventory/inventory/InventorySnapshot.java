@@ -0,0 +1,201 @@
+package dev.kir.packedinventory.inventory;
+
+import dev.kir.packedinventory.nbt.NbtItemListCursor;
+import dev.kir.packedinventory.util.inventory.NbtItemListUtil;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.inventory.Inventory;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.item.Items;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtList;
+import net.minecraft.registry.Registries;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public final class InventorySnapshot implements Inventory {
+    private final int[] rawIds;
+    private final int[] counts;
+    private final Int2ObjectMap<NbtCompound> nbts;
+    private final boolean areNbtsInterned;
+    private boolean areNbtsShared;
+    private ItemStack[] stacks;
+
+    private InventorySnapshot(int[] rawIds, int[] counts, Int2ObjectMap<NbtCompound> nbts, boolean areNbtsInterned, boolean areNbtsShared) {
+        this.rawIds = rawIds;
+        this.counts = counts;
+        this.nbts = nbts;
+        this.areNbtsInterned = areNbtsInterned;
+        this.areNbtsShared = areNbtsShared;
+    }
+
+    public static InventorySnapshot of(@Nullable NbtList items, int size) {
+        return InventorySnapshot.of(items, 0, size, false);
+    }
+
+    public static InventorySnapshot of(@Nullable NbtList items, int size, boolean intern) {
+        return InventorySnapshot.of(items, 0, size, intern);
+    }
+
+    public static InventorySnapshot of(@Nullable NbtList items, int offset, int size) {
+        return InventorySnapshot.of(items, offset, size, false);
+    }
+
+    public static InventorySnapshot of(@Nullable NbtList items, int offset, int size, boolean intern) {
+        int[] rawIds = new int[Math.max(size, 0)];
+        int[] counts = new int[rawIds.length];
+        Int2ObjectMap<NbtCompound> nbts = new Int2ObjectOpenHashMap<>();
+        NbtItemListCursor cursor = NbtItemListCursor.of(items);
+        while (cursor.next()) {
+            int slot = cursor.getSlot() - offset;
+            if (slot < 0 || slot >= rawIds.length) {
+                continue;
+            }
+
+            Item item = cursor.getItem();
+            if (item == Items.AIR) {
+                continue;
+            }
+
+            rawIds[slot] = Registries.ITEM.getRawId(item);
+            counts[slot] = cursor.getCount();
+            NbtCompound nbt = cursor.getNbt();
+            if (nbt != null) {
+                // Interning only pays off for snapshots that are kept around (e.g., synced tooltip data),
+                // while short-lived ones (e.g., rebuilt every frame) just need a private copy.
+                nbts.put(slot, intern ? NbtItemListUtil.intern(nbt) : nbt.copy());
+            }
+        }
+        return new InventorySnapshot(rawIds, counts, nbts, intern, intern);
+    }
+
+    public int getRawId(int slot) {
+        return this.isInBounds(slot) ? this.rawIds[slot] : 0;
+    }
+
+    public int getCount(int slot) {
+        return this.isInBounds(slot) ? this.counts[slot] : 0;
+    }
+
+    public @Nullable NbtCompound getNbt(int slot) {
+        NbtCompound nbt = this.nbts.get(slot);
+        return nbt == null ? null : nbt.copy();
+    }
+
+    public InventorySnapshot zip() {
+        int[] rawIds = new int[this.rawIds.length];
+        int[] counts = new int[this.counts.length];
+        Int2ObjectMap<NbtCompound> nbts = new Int2ObjectOpenHashMap<>();
+
+        // Stacks are grouped by their raw id and NBT, just like ItemStack.canCombine does.
+        // Equal interned compounds are always the same instance, so those can be looked up
+        // by reference (plain stacks are kept under the null key).
+        Map<NbtCompound, Int2IntMap> slotsByNbt = this.areNbtsInterned ? new Reference2ObjectOpenHashMap<>() : new HashMap<>();
+        int size = 0;
+        for (int i = 0; i < this.rawIds.length; ++i) {
+            if (this.counts[i] <= 0) {
+                continue;
+            }
+
+            int rawId = this.rawIds[i];
+            NbtCompound nbt = this.nbts.get(i);
+            Int2IntMap slots = slotsByNbt.computeIfAbsent(nbt, x -> {
+                Int2IntMap map = new Int2IntOpenHashMap();
+                map.defaultReturnValue(-1);
+                return map;
+            });
+
+            int j = slots.get(rawId);
+            if (j < 0) {
+                j = size++;
+                rawIds[j] = rawId;
+                slots.put(rawId, j);
+                if (nbt != null) {
+                    nbts.put(j, nbt);
+                }
+            }
+            counts[j] += this.counts[i];
+        }
+
+        // Compounds that haven't been handed out to any stack yet can be passed on to the zipped snapshot
+        // without copying them, as long as this snapshot won't hand them out on its own anymore.
+        boolean areNbtsShared = this.areNbtsShared || this.stacks != null;
+        this.areNbtsShared = true;
+        return new InventorySnapshot(Arrays.copyOf(rawIds, size), Arrays.copyOf(counts, size), nbts, this.areNbtsInterned, areNbtsShared);
+    }
+
+    private boolean isInBounds(int slot) {
+        return slot >= 0 && slot < this.rawIds.length;
+    }
+
+    @Override
+    public int size() {
+        return this.rawIds.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (int count : this.counts) {
+            if (count > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public ItemStack getStack(int slot) {
+        if (!this.isInBounds(slot) || this.counts[slot] <= 0) {
+            return ItemStack.EMPTY;
+        }
+
+        if (this.stacks == null) {
+            this.stacks = new ItemStack[this.rawIds.length];
+        }
+
+        // Stacks are only materialized once something actually needs them (e.g., to render them).
+        ItemStack stack = this.stacks[slot];
+        if (stack == null) {
+            stack = new ItemStack(Registries.ITEM.get(this.rawIds[slot]), this.counts[slot]);
+            NbtCompound nbt = this.nbts.get(slot);
+            if (nbt != null) {
+                // Shared compounds (e.g., interned ones) may only be handed out as copies.
+                stack.setNbt(this.areNbtsShared ? nbt.copy() : nbt);
+            }
+            this.stacks[slot] = stack;
+        }
+        return stack;
+    }
+
+    @Override
+    public ItemStack removeStack(int slot, int amount) {
+        return ItemStack.EMPTY;
+    }
+
+    @Override
+    public ItemStack removeStack(int slot) {
+        return ItemStack.EMPTY;
+    }
+
+    @Override
+    public void setStack(int slot, ItemStack stack) { }
+
+    @Override
+    public void markDirty() { }
+
+    @Override
+    public boolean canPlayerUse(PlayerEntity player) {
+        return true;
+    }
+
+    @Override
+    public void clear() { }
+}
@@ -1,11 +1,18 @@
 package dev.kir.packedinventory.inventory;
 
+import dev.kir.packedinventory.api.v1.inventory.InventoryViewMetadata;
 import dev.kir.packedinventory.api.v1.screen.InventoryDependentScreenHandlerFactory;
 import dev.kir.packedinventory.item.NbtListItemStack;
+import dev.kir.packedinventory.nbt.NbtItemListCursor;
+import dev.kir.packedinventory.nbt.NbtItemListIndex;
 import dev.kir.packedinventory.nbt.NbtListProvider;
 import dev.kir.packedinventory.util.block.entity.BlockEntityUtil;
 import dev.kir.packedinventory.util.inventory.InventoryUtil;
 import dev.kir.packedinventory.util.inventory.NbtItemListUtil;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntList;
 import net.minecraft.block.entity.BlockEntityType;
 import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.entity.player.PlayerInventory;
@@ -21,14 +28,25 @@ import net.minecraft.text.Text;
 import net.minecraft.util.collection.DefaultedList;
 import org.jetbrains.annotations.Nullable;
 
-import java.util.Optional;
+import java.lang.ref.WeakReference;
+import java.util.*;
 import java.util.function.BiPredicate;
 import java.util.function.Consumer;
 
 public abstract class NbtItemsInventory implements Inventory, NbtListProvider, NamedScreenHandlerFactory {
+    private static final Map<ItemStack, List<WeakReference<NbtItemsInventory>>> JOURNALED_VIEWS = Collections.synchronizedMap(new WeakHashMap<>());
+
     protected final PlayerEntity player;
     protected final Inventory inventory;
     private final DefaultedList<ItemStack> items;
+    private final NbtCompound[] decodedNbts;
+    private final ItemStack[] decodedStacks;
+    private final ItemStack[] journal;
+    private @Nullable ItemStack journaledStack;
+    private @Nullable NbtItemListIndex index;
+    private @Nullable Int2ObjectMap<ItemStack> batchedStacks;
+    private int batchDepth;
+    private boolean isContainingInventoryDirty;
     private ItemStack stack;
     private ItemStack stackCopy;
 
@@ -43,10 +61,17 @@ public abstract class NbtItemsInventory implements Inventory, NbtListProvider, N
         this.stack = stack;
         this.stackCopy = stack.copy();
 
-        this.getNbtList().ifPresent(NbtItemListUtil::clean);
-        this.getNbtList().ifPresent(NbtItemListUtil::sort);
+        // Another view of the same stack may still hold journaled changes.
+        NbtItemsInventory.flushJournals(stack);
+
+        // Views are created often, while malformed item lists are rare,
+        // so only fix the list up when it actually needs it.
+        this.getNbtList().ifPresent(NbtItemListUtil::normalize);
 
         this.items = DefaultedList.ofSize(this.size(), ItemStack.EMPTY);
+        this.decodedNbts = new NbtCompound[this.size()];
+        this.decodedStacks = new ItemStack[this.size()];
+        this.journal = new ItemStack[this.size()];
     }
 
     public static Builder builder(Inventory inventory, int index, PlayerEntity player) {
@@ -69,8 +94,35 @@ public abstract class NbtItemsInventory implements Inventory, NbtListProvider, N
 
     @Override
     public Optional<NbtList> getNbtList() {
+        this.flushJournal();
+        this.flushBatchedStacks();
+        return Optional.ofNullable(this.findNbtList());
+    }
+
+    private @Nullable NbtList findNbtList() {
         NbtCompound nbt = BlockItem.getBlockEntityNbt(this.stack);
-        return nbt == null || !nbt.contains(InventoryUtil.ITEMS_KEY, NbtElement.LIST_TYPE) ? Optional.empty() : Optional.of(nbt.getList(InventoryUtil.ITEMS_KEY, NbtElement.COMPOUND_TYPE));
+        return nbt == null || !nbt.contains(InventoryUtil.ITEMS_KEY, NbtElement.LIST_TYPE) ? null : nbt.getList(InventoryUtil.ITEMS_KEY, NbtElement.COMPOUND_TYPE);
+    }
+
+    private @Nullable NbtItemListIndex getNbtListIndex() {
+        NbtList list = this.findNbtList();
+        return list == null ? null : this.getNbtListIndex(list);
+    }
+
+    private NbtItemListIndex getOrCreateNbtListIndex() {
+        return this.getNbtListIndex(this.getOrCreateNbtList());
+    }
+
+    private NbtItemListIndex getNbtListIndex(NbtList list) {
+        if (this.index == null || this.index.getList() != list) {
+            this.index = NbtItemListIndex.of(list, this.size());
+        }
+        return this.index;
+    }
+
+    @Override
+    public boolean isNbtListWide() {
+        return NbtItemListUtil.isWide(this.size());
     }
 
     @Override
@@ -88,6 +140,223 @@ public abstract class NbtItemsInventory implements Inventory, NbtListProvider, N
         return nbt.getList(InventoryUtil.ITEMS_KEY, NbtElement.COMPOUND_TYPE);
     }
 
+    @Override
+    public ItemStack getNbtStack(int slot) {
+        ItemStack journaledStack = slot >= 0 && slot < this.journal.length ? this.journal[slot] : null;
+        if (journaledStack != null) {
+            return journaledStack;
+        }
+
+        ItemStack batchedStack = this.batchedStacks == null ? null : this.batchedStacks.get(slot);
+        if (batchedStack != null) {
+            return batchedStack;
+        }
+
+        NbtItemListIndex index = this.getNbtListIndex();
+        int i = index == null ? -1 : index.indexOf(slot);
+        if (i < 0) {
+            return ItemStack.EMPTY;
+        }
+
+        // Both NbtItemListUtil and NbtItemListIndex replace the compound stored in
+        // the list on every mutation, so an identity check is enough to tell whether
+        // the decoded stack is still up to date.
+        NbtCompound nbt = index.getList().getCompound(i);
+        if (slot >= this.decodedStacks.length) {
+            return NbtItemListUtil.asItemStack(nbt);
+        }
+
+        if (this.decodedNbts[slot] != nbt) {
+            this.decodedNbts[slot] = nbt;
+            this.decodedStacks[slot] = NbtItemListUtil.asItemStack(nbt);
+        }
+        return this.decodedStacks[slot];
+    }
+
+    @Override
+    public void updateNbtStack(int slot, Consumer<ItemStack> stackUpdater) {
+        ItemStack batchedStack = this.batchedStacks == null ? null : this.batchedStacks.get(slot);
+        if (batchedStack != null) {
+            if (!batchedStack.isEmpty()) {
+                stackUpdater.accept(batchedStack);
+            }
+            return;
+        }
+
+        if (slot < 0 || slot >= this.journal.length) {
+            this.getOrCreateNbtListIndex().update(slot, stackUpdater);
+            return;
+        }
+
+        // Changes made to live stacks are kept in memory and written back to NBT
+        // all at once, instead of re-encoding the whole stack after every setter call.
+        ItemStack stack = this.journal[slot];
+        if (stack == null) {
+            stack = this.getNbtStack(slot);
+            if (stack.isEmpty()) {
+                return;
+            }
+
+            stack = stack.copy();
+            this.journal[slot] = stack;
+            if (this.journaledStack == null) {
+                this.journaledStack = this.stack;
+                synchronized (JOURNALED_VIEWS) {
+                    JOURNALED_VIEWS.computeIfAbsent(this.journaledStack, x -> new ArrayList<>()).add(new WeakReference<>(this));
+                }
+            }
+        }
+        stackUpdater.accept(stack);
+    }
+
+    public void flushJournal() {
+        ItemStack journaledStack = this.journaledStack;
+        if (journaledStack == null) {
+            return;
+        }
+
+        this.journaledStack = null;
+        synchronized (JOURNALED_VIEWS) {
+            List<WeakReference<NbtItemsInventory>> views = JOURNALED_VIEWS.get(journaledStack);
+            if (views != null && views.removeIf(x -> x.get() == null || x.get() == this) && views.isEmpty()) {
+                JOURNALED_VIEWS.remove(journaledStack);
+            }
+        }
+
+        NbtItemListIndex index = this.getNbtListIndex();
+        for (int i = 0; i < this.journal.length; ++i) {
+            ItemStack stack = this.journal[i];
+            if (stack == null) {
+                continue;
+            }
+
+            this.journal[i] = null;
+            if (index != null && index.replace(i, stack)) {
+                this.decodedNbts[i] = index.getList().getCompound(index.indexOf(i));
+                this.decodedStacks[i] = stack;
+            }
+        }
+    }
+
+    private void discardJournaledStack(int slot) {
+        if (slot >= 0 && slot < this.journal.length) {
+            this.journal[slot] = null;
+        }
+    }
+
+    private static void flushJournals(ItemStack stack) {
+        // Only views of the same stack can hold changes the new view would otherwise miss,
+        // and those are only tracked weakly, so abandoned views never keep their stacks alive.
+        List<WeakReference<NbtItemsInventory>> views = JOURNALED_VIEWS.remove(stack);
+        if (views == null) {
+            return;
+        }
+
+        for (WeakReference<NbtItemsInventory> view : views) {
+            NbtItemsInventory inventory = view.get();
+            if (inventory != null) {
+                inventory.flushJournal();
+            }
+        }
+    }
+
+    public void beginBatch() {
+        if (this.batchDepth++ == 0) {
+            this.batchedStacks = new Int2ObjectOpenHashMap<>();
+        }
+    }
+
+    public void endBatch() {
+        if (this.batchDepth == 0 || --this.batchDepth != 0) {
+            return;
+        }
+
+        this.flushBatchedStacks();
+        this.batchedStacks = null;
+
+        // Stacks modified in place during the batch are journaled instead of batched,
+        // and no one else is going to flush them once the batch is over.
+        this.flushJournal();
+        this.isContainingInventoryDirty = false;
+        this.markOwningInventoryDirty();
+    }
+
+    private void flushBatchedStacks() {
+        if (this.batchedStacks == null || this.batchedStacks.isEmpty()) {
+            return;
+        }
+
+        this.flushJournal();
+        boolean hasNonEmptyStacks = this.batchedStacks.values().stream().anyMatch(x -> !x.isEmpty());
+        NbtList list = hasNonEmptyStacks ? this.getOrCreateNbtList() : this.findNbtList();
+        if (list != null) {
+            // Slots written during a batch are merged into the sorted list in a single
+            // pass, instead of shifting the list around once per slot.
+            NbtItemListUtil.merge(list, this.batchedStacks, this.isNbtListWide());
+            this.getNbtListIndex(list).rebuild();
+        }
+        this.batchedStacks.clear();
+    }
+
+    private void markContainingInventoryDirty() {
+        if (this.batchDepth != 0) {
+            this.isContainingInventoryDirty = true;
+        } else {
+            this.markOwningInventoryDirty();
+        }
+    }
+
+    private void markOwningInventoryDirty() {
+        // A combined inventory only marks the inner inventories that were written through it,
+        // while this view modifies its stack in place, so the one holding the stack is marked directly.
+        if (this.inventory instanceof CombinedInventory) {
+            CombinedInventory combinedInventory = (CombinedInventory)this.inventory;
+            int slot = InventoryUtil.indexOf(combinedInventory, this.stack);
+            Inventory owningInventory = slot == -1 ? null : combinedInventory.getInnerInventory(slot);
+            if (owningInventory != null) {
+                owningInventory.markDirty();
+                return;
+            }
+        }
+        this.inventory.markDirty();
+    }
+
+    public void setStacks(Int2ObjectMap<ItemStack> stacks) {
+        this.beginBatch();
+        try {
+            for (Int2ObjectMap.Entry<ItemStack> entry : Int2ObjectMaps.fastIterable(stacks)) {
+                this.setStack(entry.getIntKey(), entry.getValue());
+            }
+        } finally {
+            this.endBatch();
+        }
+    }
+
+    public List<ItemStack> removeStacks(IntList slots) {
+        List<ItemStack> removed = new ArrayList<>(slots.size());
+        this.beginBatch();
+        try {
+            for (int i = 0; i < slots.size(); ++i) {
+                removed.add(this.removeStack(slots.getInt(i)));
+            }
+        } finally {
+            this.endBatch();
+        }
+        return removed;
+    }
+
+    public void replaceAll(List<ItemStack> stacks) {
+        int size = this.size();
+        this.beginBatch();
+        try {
+            for (int i = 0; i < size; ++i) {
+                this.setStack(i, i < stacks.size() ? stacks.get(i) : ItemStack.EMPTY);
+            }
+        } finally {
+            this.endBatch();
+        }
+    }
+
     @Override
     public Text getDisplayName() {
         return this.stack.getName();
@@ -104,7 +373,7 @@ public abstract class NbtItemsInventory implements Inventory, NbtListProvider, N
 
     @Override
     public boolean isEmpty() {
-        return this.getNbtList().map(x -> x.size() == 0).orElse(true);
+        return !NbtItemListCursor.of(this.getNbtList().orElse(null)).next();
     }
 
     @Override
@@ -119,8 +388,8 @@ public abstract class NbtItemsInventory implements Inventory, NbtListProvider, N
             stack = NbtListItemStack.of(this, slot);
             this.items.set(slot, stack);
             if (isEmptyNbtListItemStack && stack.isEmpty()) {
-                this.getNbtList().ifPresent(list -> NbtItemListUtil.remove(list, slot));
-                this.inventory.markDirty();
+                this.removeNbtStack(slot);
+                this.markContainingInventoryDirty();
             }
         }
         return stack;
@@ -137,9 +406,9 @@ public abstract class NbtItemsInventory implements Inventory, NbtListProvider, N
         if (stack.isEmpty() && stack instanceof NbtListItemStack) {
             this.items.set(slot, ItemStack.EMPTY);
             ((NbtListItemStack)stack).unbound();
-            this.getNbtList().ifPresent(list -> NbtItemListUtil.remove(list, slot));
+            this.removeNbtStack(slot);
         }
-        this.inventory.markDirty();
+        this.markContainingInventoryDirty();
         return removed;
     }
 
@@ -155,8 +424,8 @@ public abstract class NbtItemsInventory implements Inventory, NbtListProvider, N
         if (stack instanceof NbtListItemStack) {
             removed = stack.copy();
             ((NbtListItemStack)stack).unbound();
-            this.getNbtList().ifPresent(list -> NbtItemListUtil.remove(list, slot));
-            this.inventory.markDirty();
+            this.removeNbtStack(slot);
+            this.markContainingInventoryDirty();
         }
         return removed;
     }
@@ -168,13 +437,43 @@ public abstract class NbtItemsInventory implements Inventory, NbtListProvider, N
         }
 
         this.removeStack(slot);
-        if (!stack.isEmpty()) {
-            NbtItemListUtil.insert(this.getOrCreateNbtList(), slot, stack);
+        if (stack.isEmpty()) {
+            return;
+        }
+
+        if (this.batchedStacks != null) {
+            this.discardJournaledStack(slot);
+            this.batchedStacks.put(slot, stack.copy());
+            return;
+        }
+
+        this.flushJournal();
+        this.getOrCreateNbtListIndex().insert(slot, stack);
+    }
+
+    private void removeNbtStack(int slot) {
+        if (this.batchedStacks != null) {
+            this.discardJournaledStack(slot);
+            this.batchedStacks.put(slot, ItemStack.EMPTY);
+            return;
         }
+
+        this.flushJournal();
+        NbtItemListIndex index = this.getNbtListIndex();
+        if (index != null) {
+            index.remove(slot);
+        }
+    }
+
+    @Override
+    public void markDirty() {
+        this.flushJournal();
     }
 
     @Override
-    public void markDirty() { }
+    public void onClose(PlayerEntity player) {
+        this.flushJournal();
+    }
 
     @Override
     public boolean isValid(int slot, ItemStack stack) {
@@ -187,20 +486,24 @@ public abstract class NbtItemsInventory implements Inventory, NbtListProvider, N
             return false;
         }
 
+        this.flushJournal();
         ItemStack cursorStack = this.player.currentScreenHandler.getCursorStack();
         if (!this.stack.isEmpty() && (cursorStack == this.stack || InventoryUtil.indexOf(this.inventory, this.stack) != -1)) {
             return true;
         }
 
+        // The stack may also be changed by other views of it or by anything else holding it,
+        // so its fingerprint is taken from its current contents instead of being cached.
         ItemStack copy = this.getStackCopy();
+        long fingerprint = InventoryUtil.fingerprint(copy);
         if (!cursorStack.isEmpty()) {
-            if (ItemStack.areEqual(cursorStack, copy)) {
+            if (InventoryUtil.fingerprint(cursorStack) == fingerprint && ItemStack.areEqual(cursorStack, copy)) {
                 this.updateItemStack(cursorStack);
                 return true;
             }
         }
 
-        int i = InventoryUtil.indexOf(this.inventory, (x, s) -> ItemStack.areEqual(x, copy));
+        int i = InventoryUtil.indexOf(this.inventory, (x, s) -> x.isOf(copy.getItem()) && InventoryUtil.fingerprint(x) == fingerprint && ItemStack.areEqual(x, copy));
         if (i != -1) {
             this.updateItemStack(this.inventory.getStack(i));
             return true;
@@ -225,6 +528,7 @@ public abstract class NbtItemsInventory implements Inventory, NbtListProvider, N
             this.removeStack(i);
         }
         this.getNbtList().ifPresent(NbtList::clear);
+        this.index = null;
     }
 
     @Override
@@ -277,21 +581,11 @@ public abstract class NbtItemsInventory implements Inventory, NbtListProvider, N
 
         public Builder resolveDefaults() {
             Optional<BlockEntityType<?>> blockEntityTypeOptional = BlockEntityUtil.getBlockEntityType(this.stack.getItem());
-            if (blockEntityTypeOptional.isEmpty()) {
-                if (this.size == null) {
-                    this.size = this.getDefaultSize();
-                }
-                if (this.nbtInitializer == null) {
-                    this.nbtInitializer = this.createDefaultNbtInitializer();
-                }
-            } else {
-                BlockEntityType<?> blockEntityType = blockEntityTypeOptional.get();
-                if (this.size == null) {
-                    this.size = BlockEntityUtil.getInventorySize(blockEntityType, this.getDefaultSize());
-                }
-                if (this.nbtInitializer == null) {
-                    this.nbtInitializer = BlockEntityUtil.getBlockEntityItemStackInitializer(blockEntityType, this.stack.getItem());
-                }
+            if (this.size == null) {
+                this.size = this.resolveSize(blockEntityTypeOptional);
+            }
+            if (this.nbtInitializer == null) {
+                this.nbtInitializer = blockEntityTypeOptional.isEmpty() ? this.createDefaultNbtInitializer() : BlockEntityUtil.getBlockEntityItemStackInitializer(blockEntityTypeOptional.get(), this.stack.getItem());
             }
             if (this.screenHandlerFactory == null) {
                 this.screenHandlerFactory = InventoryDependentScreenHandlerFactory.genericOfSize(this.size);
@@ -302,6 +596,19 @@ public abstract class NbtItemsInventory implements Inventory, NbtListProvider, N
             return this;
         }
 
+        public InventoryViewMetadata buildMetadata() {
+            // Slots are counted straight from the stack's NBT,
+            // so other views of it shouldn't hold any pending changes.
+            NbtItemsInventory.flushJournals(this.stack);
+
+            int size = this.size == null ? this.resolveSize(BlockEntityUtil.getBlockEntityType(this.stack.getItem())) : this.size;
+            return InventoryViewMetadata.of(size, InventoryUtil.getOccupiedSlotCount(this.stack, size));
+        }
+
+        private int resolveSize(Optional<BlockEntityType<?>> blockEntityType) {
+            return blockEntityType.isEmpty() ? this.getDefaultSize() : BlockEntityUtil.getInventorySize(blockEntityType.get(), this.getDefaultSize());
+        }
+
         private int getDefaultSize() {
             return BlockEntityUtil.getInventorySize(BlockEntityType.CHEST, 27);
         }
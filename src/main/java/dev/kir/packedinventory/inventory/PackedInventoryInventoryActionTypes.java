@@ -12,6 +12,7 @@ public final class PackedInventoryInventoryActionTypes {
     private static InventoryActionTypeRegistry.Entry<?> DEFAULT;
     private static InventoryActionTypeRegistry.Entry<?> TRANSFER;
     private static InventoryActionTypeRegistry.Entry<?> DROP;
+    private static InventoryActionTypeRegistry.Entry<?> SORT;
 
     public static InventoryActionTypeRegistry.Entry<?> getDefault() {
         return DEFAULT;
@@ -25,11 +26,16 @@ public final class PackedInventoryInventoryActionTypes {
         return DROP;
     }
 
+    public static InventoryActionTypeRegistry.Entry<?> getSort() {
+        return SORT;
+    }
+
     @SuppressWarnings("unused")
     public static void init(InventoryActionTypeRegistry registry, PackedInventoryApiConfig config) {
         DEFAULT = register(registry, "default", InventoryActionTypes.DEFAULT);
         TRANSFER = register(registry, "transfer", InventoryActionTypes.TRANSFER);
         DROP = register(registry, "drop", InventoryActionTypes.DROP);
+        SORT = register(registry, "sort", InventoryActionTypes.SORT);
     }
 
     private static <T extends InventoryAction> InventoryActionTypeRegistry.Entry<T> register(InventoryActionTypeRegistry registry, String id, InventoryActionType<T> inventoryActionType) {
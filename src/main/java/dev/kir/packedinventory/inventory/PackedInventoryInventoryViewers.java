@@ -5,6 +5,7 @@ import dev.kir.packedinventory.api.v1.config.PackedInventoryApiConfig;
 import dev.kir.packedinventory.api.v1.config.SilkTouchableGenericValidationConfig;
 import dev.kir.packedinventory.api.v1.config.ValidationConfig;
 import dev.kir.packedinventory.api.v1.inventory.InventoryValidators;
+import dev.kir.packedinventory.api.v1.inventory.InventoryViewMetadata;
 import dev.kir.packedinventory.api.v1.inventory.InventoryViewer;
 import dev.kir.packedinventory.api.v1.inventory.InventoryViewerRegistry;
 import net.minecraft.block.Block;
@@ -85,7 +86,10 @@ public final class PackedInventoryInventoryViewers {
         InventoryViewer.Validator isSingleItem = InventoryValidators.SINGLE_ITEM;
         InventoryViewer.Validator isOnGround = InventoryValidators.config(Items.SHULKER_BOX, config, GenericValidationConfig.DEFAULT, x -> !x.requiresPlayerOnGround()).or(InventoryValidators.IS_ON_GROUND);
         return registry.register(
-            (inventory, slot, player) -> NbtItemsInventory.builder(inventory, slot, player).screenHandler(ShulkerBoxScreenHandler::new).isValid((x, nii) -> !(Block.getBlockFromItem(x.getItem()) instanceof ShulkerBoxBlock)).resolveDefaults().build(),
+            InventoryViewer.MetadataViewer.of(
+                (inventory, slot, player) -> NbtItemsInventory.builder(inventory, slot, player).screenHandler(ShulkerBoxScreenHandler::new).isValid((x, nii) -> !(Block.getBlockFromItem(x.getItem()) instanceof ShulkerBoxBlock)).resolveDefaults().build(),
+                (inventory, slot, player) -> NbtItemsInventory.builder(inventory, slot, player).buildMetadata()
+            ),
             isEnabled.and(isInCreative.or(isSingleItem.and(isOnGround))),
             Stream.concat(Arrays.stream(DyeColor.values()), Stream.of((DyeColor)null)).map(ShulkerBoxBlock::get).map(Block::asItem).toList()
         );
@@ -112,7 +116,7 @@ public final class PackedInventoryInventoryViewers {
         InventoryViewer.Validator isInCreative = InventoryValidators.config(workStation, config, GenericValidationConfig.DEFAULT, GenericValidationConfig::isSuppressedInCreative).and(InventoryValidators.IS_IN_CREATIVE);
         InventoryViewer.Validator isOnGround = InventoryValidators.config(workStation, config, GenericValidationConfig.DEFAULT, x -> !x.requiresPlayerOnGround()).or(InventoryValidators.IS_ON_GROUND);
         return registry.register(
-            (inventory, slot, player) -> EmptyInventory.getInstance(),
+            InventoryViewer.MetadataViewer.of((inventory, slot, player) -> EmptyInventory.getInstance(), (inventory, slot, player) -> InventoryViewMetadata.EMPTY),
             isEnabled.and(isInCreative.or(isOnGround)),
             workStation
         );
@@ -126,7 +130,7 @@ public final class PackedInventoryInventoryViewers {
         InventoryViewer.Validator isSingleItem = InventoryValidators.SINGLE_ITEM;
         InventoryViewer.Validator isOnGround = InventoryValidators.config(Items.ANVIL, config, GenericValidationConfig.DEFAULT, x -> !x.requiresPlayerOnGround()).or(InventoryValidators.IS_ON_GROUND);
         return registry.register(
-            (inventory, slot, player) -> EmptyInventory.getInstance(),
+            InventoryViewer.MetadataViewer.of((inventory, slot, player) -> EmptyInventory.getInstance(), (inventory, slot, player) -> InventoryViewMetadata.EMPTY),
             isEnabled.and(isInCreative.or(isSingleItem.and(isOnGround))),
             Items.ANVIL, Items.CHIPPED_ANVIL, Items.DAMAGED_ANVIL
         );
@@ -0,0 +1,193 @@
+package dev.kir.packedinventory.inventory;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.inventory.Inventory;
+import net.minecraft.item.ItemStack;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+public final class TransactionalInventory implements Inventory {
+    private final Inventory inventory;
+    private final @Nullable TransactionalInventory source;
+    private final Int2ObjectMap<ItemStack> stacks;
+    private final Map<ItemStack, ItemStack> originalStacks;
+    private final IntSet changedSlots;
+
+    private TransactionalInventory(Inventory inventory, @Nullable TransactionalInventory source) {
+        this.inventory = inventory;
+        this.source = source;
+        this.stacks = new Int2ObjectOpenHashMap<>();
+        this.originalStacks = new IdentityHashMap<>();
+        this.changedSlots = new IntOpenHashSet();
+    }
+
+    public static TransactionalInventory of(Inventory inventory) {
+        return new TransactionalInventory(inventory, null);
+    }
+
+    public static TransactionalInventory of(Inventory inventory, TransactionalInventory source) {
+        return new TransactionalInventory(inventory, source);
+    }
+
+    public ItemStack getOriginalStack(ItemStack stack) {
+        return this.originalStacks.getOrDefault(stack, stack);
+    }
+
+    public Inventory getInventory() {
+        return this.inventory;
+    }
+
+    public boolean hasChanges() {
+        return !this.changedSlots.isEmpty();
+    }
+
+    public void commit() {
+        if (this.changedSlots.isEmpty()) {
+            this.stacks.clear();
+            return;
+        }
+
+        // Callers always write a stack back after modifying it in place,
+        // so only the slots that have been explicitly written need to be committed.
+        Int2ObjectMap<ItemStack> changes = new Int2ObjectOpenHashMap<>(this.changedSlots.size());
+        for (int slot : this.changedSlots) {
+            changes.put(slot, this.stacks.get(slot));
+        }
+
+        if (this.inventory instanceof NbtItemsInventory) {
+            ((NbtItemsInventory)this.inventory).setStacks(changes);
+        } else {
+            for (Int2ObjectMap.Entry<ItemStack> entry : Int2ObjectMaps.fastIterable(changes)) {
+                int slot = entry.getIntKey();
+                ItemStack stack = entry.getValue();
+
+                // Other code may still hold on to the stacks of a regular inventory,
+                // so those are updated in place instead of being replaced by their shadow copies.
+                ItemStack originalStack = this.inventory.getStack(slot);
+                if (!stack.isEmpty() && !originalStack.isEmpty() && ItemStack.canCombine(originalStack, stack)) {
+                    originalStack.setCount(stack.getCount());
+                    stack = originalStack;
+                }
+                this.inventory.setStack(slot, stack);
+            }
+        }
+        this.inventory.markDirty();
+        this.abort();
+    }
+
+    public void abort() {
+        this.stacks.clear();
+        this.originalStacks.clear();
+        this.changedSlots.clear();
+    }
+
+    private boolean isInBounds(int slot) {
+        return slot >= 0 && slot < this.inventory.size();
+    }
+
+    @Override
+    public int size() {
+        return this.inventory.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        if (this.stacks.isEmpty()) {
+            return this.inventory.isEmpty();
+        }
+
+        int size = this.size();
+        for (int i = 0; i < size; ++i) {
+            if (!this.getStack(i).isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public ItemStack getStack(int slot) {
+        if (!this.isInBounds(slot)) {
+            return ItemStack.EMPTY;
+        }
+
+        // Callers are free to modify returned stacks in place,
+        // so every slot gets its own copy the first time it's accessed.
+        ItemStack stack = this.stacks.get(slot);
+        if (stack == null) {
+            ItemStack originalStack = this.inventory.getStack(slot);
+            stack = originalStack.copy();
+            this.stacks.put(slot, stack);
+            if (!stack.isEmpty()) {
+                this.originalStacks.put(stack, originalStack);
+            }
+        }
+        return stack;
+    }
+
+    @Override
+    public ItemStack removeStack(int slot, int amount) {
+        ItemStack stack = this.getStack(slot);
+        if (stack.isEmpty() || amount <= 0) {
+            return ItemStack.EMPTY;
+        }
+
+        ItemStack removed = stack.split(amount);
+        this.setStack(slot, stack);
+        return removed;
+    }
+
+    @Override
+    public ItemStack removeStack(int slot) {
+        ItemStack stack = this.getStack(slot);
+        if (stack.isEmpty()) {
+            return ItemStack.EMPTY;
+        }
+
+        this.setStack(slot, ItemStack.EMPTY);
+        return stack;
+    }
+
+    @Override
+    public void setStack(int slot, ItemStack stack) {
+        if (this.isInBounds(slot)) {
+            this.stacks.put(slot, stack.isEmpty() ? ItemStack.EMPTY : stack);
+            this.changedSlots.add(slot);
+        }
+    }
+
+    @Override
+    public int getMaxCountPerStack() {
+        return this.inventory.getMaxCountPerStack();
+    }
+
+    @Override
+    public void markDirty() { }
+
+    @Override
+    public boolean canPlayerUse(PlayerEntity player) {
+        return this.inventory.canPlayerUse(player);
+    }
+
+    @Override
+    public boolean isValid(int slot, ItemStack stack) {
+        // Validity checks may rely on stack identity (e.g., a container cannot be put inside itself),
+        // so copies made by the other side of the transaction are resolved to their originals first.
+        return this.inventory.isValid(slot, this.source == null ? stack : this.source.getOriginalStack(stack));
+    }
+
+    @Override
+    public void clear() {
+        int size = this.size();
+        for (int i = 0; i < size; ++i) {
+            this.setStack(i, ItemStack.EMPTY);
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package dev.kir.packedinventory.item;
 
 import dev.kir.packedinventory.nbt.NbtListProvider;
-import dev.kir.packedinventory.util.inventory.NbtItemListUtil;
 import net.minecraft.enchantment.Enchantment;
 import net.minecraft.entity.Entity;
 import net.minecraft.item.ItemConvertible;
@@ -28,9 +27,7 @@ public class NbtListItemStack extends EquatableItemStack {
     }
 
     public static ItemStack of(NbtListProvider nbtListProvider, int slot) {
-        NbtList list = nbtListProvider.getNbtList().orElse(null);
-        int i = list == null ? -1 : NbtItemListUtil.binarySearch(list, slot);
-        ItemStack stack = i < 0 ? ItemStack.EMPTY : NbtItemListUtil.asItemStack(list.getCompound(i));
+        ItemStack stack = nbtListProvider.getNbtStack(slot);
         return stack.isEmpty() ? ItemStack.EMPTY : new NbtListItemStack(stack.getItem(), stack.getCount(), nbtListProvider, slot);
     }
 
@@ -99,7 +96,7 @@ public class NbtListItemStack extends EquatableItemStack {
                 if (realSubNbt == null) {
                     super.removeSubNbt(key);
                 } else {
-                    super.setSubNbt(key, realSubNbt);
+                    super.setSubNbt(key, realSubNbt.copy());
                 }
             }
         }
@@ -210,7 +207,7 @@ public class NbtListItemStack extends EquatableItemStack {
         NbtCompound realNbt = this.get(ItemStack::getNbt, null);
         NbtCompound currentNbt = super.getNbt();
         if (!Objects.equals(realNbt, currentNbt)) {
-            super.setNbt(realNbt);
+            super.setNbt(realNbt == null ? null : realNbt.copy());
         }
     }
 
@@ -219,12 +216,7 @@ public class NbtListItemStack extends EquatableItemStack {
             return defaultValue;
         }
 
-        NbtList list = this.nbtListProvider.getNbtList().orElse(null);
-        if (list == null) {
-            return defaultValue;
-        }
-
-        return getter.apply(NbtItemListUtil.get(list, this.slot));
+        return getter.apply(this.nbtListProvider.getNbtStack(this.slot));
     }
 
     private void update(Consumer<ItemStack> stackUpdater) {
@@ -232,6 +224,6 @@ public class NbtListItemStack extends EquatableItemStack {
             return;
         }
 
-        NbtItemListUtil.update(this.nbtListProvider.getOrCreateNbtList(), this.slot, stackUpdater);
+        this.nbtListProvider.updateNbtStack(this.slot, stackUpdater);
     }
 }
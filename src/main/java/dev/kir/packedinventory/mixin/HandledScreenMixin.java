@@ -106,6 +106,15 @@ abstract class HandledScreenMixin extends Screen implements CustomHandleableScre
 
     @Override
     public void handleCustomKeyPressed(KeyInfo key, double mouseX, double mouseY) {
+        if (key.matches(PackedInventoryKeyBindings.SORT_ITEM)) {
+            Slot focusedSlot = this.getSlotAt(mouseX, mouseY);
+            int focusedSlotIndex = focusedSlot == null || !focusedSlot.hasStack() ? -1 : this.handler.slots.indexOf(focusedSlot);
+            if (focusedSlotIndex >= 0) {
+                InventoryAction.sort(focusedSlotIndex).invoke();
+            }
+            return;
+        }
+
         if (key.matches(PackedInventoryKeyBindings.INTERACT_WITH_ITEM)) {
             this.selectionMode = KeyBindingUtil.isKeyBindingPressed(PackedInventoryKeyBindings.INTERACT_WITH_ITEM_MODIFIER) ? SELECTION_EXTRACT : SELECTION_INTERACT;
         } else if (key.matches(PackedInventoryKeyBindings.EXTRACT_FROM_ITEM)) {
@@ -0,0 +1,75 @@
+package dev.kir.packedinventory.nbt;
+
+import dev.kir.packedinventory.util.inventory.InventoryUtil;
+import dev.kir.packedinventory.util.inventory.NbtItemListUtil;
+import net.minecraft.item.Item;
+import net.minecraft.item.Items;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtElement;
+import net.minecraft.nbt.NbtList;
+import net.minecraft.registry.Registries;
+import net.minecraft.util.Identifier;
+import org.jetbrains.annotations.Nullable;
+
+public final class NbtItemListCursor {
+    private static final String ID_KEY = "id";
+    private static final String TAG_KEY = "tag";
+
+    private final @Nullable NbtList list;
+    private int index;
+    private @Nullable NbtCompound current;
+
+    private NbtItemListCursor(@Nullable NbtList list) {
+        this.list = list == null || list.getHeldType() != NbtElement.COMPOUND_TYPE ? null : list;
+        this.index = -1;
+    }
+
+    public static NbtItemListCursor of(@Nullable NbtList list) {
+        return new NbtItemListCursor(list);
+    }
+
+    public boolean next() {
+        if (this.list == null) {
+            return false;
+        }
+
+        int size = this.list.size();
+        while (++this.index < size) {
+            NbtCompound nbt = this.list.getCompound(this.index);
+            if (!NbtItemListUtil.isEmpty(nbt)) {
+                this.current = nbt;
+                return true;
+            }
+        }
+
+        this.index = size;
+        this.current = null;
+        return false;
+    }
+
+    public int getSlot() {
+        NbtCompound nbt = this.current;
+        if (nbt == null) {
+            return -1;
+        }
+        return nbt.contains(InventoryUtil.SLOT_KEY) ? NbtItemListUtil.getSlot(nbt) : this.index;
+    }
+
+    public String getId() {
+        return this.current == null ? "" : this.current.getString(ID_KEY);
+    }
+
+    public Item getItem() {
+        Identifier id = Identifier.tryParse(this.getId());
+        return id == null ? Items.AIR : Registries.ITEM.get(id);
+    }
+
+    public int getCount() {
+        return this.current == null ? 0 : this.current.getByte(InventoryUtil.COUNT_KEY);
+    }
+
+    public @Nullable NbtCompound getNbt() {
+        NbtCompound nbt = this.current;
+        return nbt != null && nbt.contains(TAG_KEY, NbtElement.COMPOUND_TYPE) ? nbt.getCompound(TAG_KEY) : null;
+    }
+}
@@ -0,0 +1,125 @@
+package dev.kir.packedinventory.nbt;
+
+import dev.kir.packedinventory.util.inventory.NbtItemListUtil;
+import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.NbtCompound;
+import net.minecraft.nbt.NbtList;
+
+import java.util.function.Consumer;
+
+public final class NbtItemListIndex {
+    private final NbtList list;
+    private final int[] positions;
+    private final boolean isWide;
+
+    private NbtItemListIndex(NbtList list, int size) {
+        this.list = list;
+        this.positions = new int[Math.max(size, 0)];
+        this.isWide = NbtItemListUtil.isWide(size);
+        this.rebuild();
+    }
+
+    public static NbtItemListIndex of(NbtList list, int size) {
+        return new NbtItemListIndex(list, size);
+    }
+
+    public NbtList getList() {
+        return this.list;
+    }
+
+    public int indexOf(int slot) {
+        if (slot < 0 || slot >= this.positions.length) {
+            return NbtItemListUtil.binarySearch(this.list, slot);
+        }
+
+        int i = this.positions[slot];
+        if (!this.isLowerBound(slot, i)) {
+            this.rebuild();
+            i = this.positions[slot];
+        }
+        return i < this.list.size() && NbtItemListUtil.getSlot(this.list.getCompound(i)) == slot ? i : ~i;
+    }
+
+    public ItemStack remove(int slot) {
+        int i = this.indexOf(slot);
+        if (i < 0) {
+            return ItemStack.EMPTY;
+        }
+
+        ItemStack stack = NbtItemListUtil.asItemStack(this.list.getCompound(i));
+        this.list.remove(i);
+        this.shift(slot, -1);
+        return stack;
+    }
+
+    public void insert(int slot, ItemStack stack) {
+        if (stack.isEmpty()) {
+            this.remove(slot);
+            return;
+        }
+
+        NbtCompound stackNbt = NbtItemListUtil.asCompound(stack, slot, this.isWide);
+        int i = this.indexOf(slot);
+        if (i >= 0) {
+            this.list.set(i, stackNbt);
+            return;
+        }
+
+        i = ~i;
+        if (i >= this.list.size()) {
+            this.list.add(stackNbt);
+        } else {
+            this.list.add(i, stackNbt);
+        }
+        this.shift(slot, 1);
+    }
+
+    public boolean replace(int slot, ItemStack stack) {
+        int i = this.indexOf(slot);
+        if (i < 0) {
+            return false;
+        }
+
+        this.list.set(i, NbtItemListUtil.asCompound(stack, slot, this.isWide));
+        return true;
+    }
+
+    public void update(int slot, Consumer<ItemStack> stackUpdater) {
+        int i = this.indexOf(slot);
+        if (i < 0) {
+            return;
+        }
+
+        ItemStack stack = NbtItemListUtil.asItemStack(this.list.getCompound(i));
+        stackUpdater.accept(stack);
+        this.list.set(i, NbtItemListUtil.asCompound(stack, slot, this.isWide));
+    }
+
+    public void rebuild() {
+        int size = this.list.size();
+        int i = 0;
+        for (int slot = 0; slot < this.positions.length; ++slot) {
+            while (i < size && NbtItemListUtil.getSlot(this.list.getCompound(i)) < slot) {
+                ++i;
+            }
+            this.positions[slot] = i;
+        }
+    }
+
+    private boolean isLowerBound(int slot, int i) {
+        int size = this.list.size();
+        if (i < 0 || i > size) {
+            return false;
+        }
+
+        // The list may have been modified behind our back (e.g., by another view of the same stack),
+        // so make sure the cached position still separates smaller slots from greater-or-equal ones.
+        return (i == size || NbtItemListUtil.getSlot(this.list.getCompound(i)) >= slot) && (i == 0 || NbtItemListUtil.getSlot(this.list.getCompound(i - 1)) < slot);
+    }
+
+    private void shift(int slot, int delta) {
+        for (int i = slot + 1; i < this.positions.length; ++i) {
+            this.positions[i] += delta;
+        }
+    }
+}
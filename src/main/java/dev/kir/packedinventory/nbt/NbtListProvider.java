@@ -1,11 +1,24 @@
 package dev.kir.packedinventory.nbt;
 
+import dev.kir.packedinventory.util.inventory.NbtItemListUtil;
+import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.NbtList;
 
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public interface NbtListProvider {
     Optional<NbtList> getNbtList();
 
     NbtList getOrCreateNbtList();
+
+    boolean isNbtListWide();
+
+    default ItemStack getNbtStack(int slot) {
+        return this.getNbtList().map(x -> NbtItemListUtil.get(x, slot)).orElse(ItemStack.EMPTY);
+    }
+
+    default void updateNbtStack(int slot, Consumer<ItemStack> stackUpdater) {
+        NbtItemListUtil.update(this.getOrCreateNbtList(), slot, this.isNbtListWide(), stackUpdater);
+    }
 }
@@ -0,0 +1,82 @@
+package dev.kir.packedinventory.util.entity;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectLinkedOpenHashMap;
+import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.item.ItemStack;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+public final class ItemDropQueue {
+    private static final int MAX_DROPS_PER_TICK = 16;
+
+    private static final Map<PlayerEntity, Queue<ItemStack>> QUEUED_DROPS = new Reference2ObjectLinkedOpenHashMap<>();
+    private static final Object2IntMap<PlayerEntity> DROPS_THIS_TICK = new Object2IntOpenHashMap<>();
+
+    public static void drop(PlayerEntity owner, List<ItemStack> stacks) {
+        // Whatever doesn't fit into this tick's budget is spawned over the next few ticks,
+        // so dropping several full containers at once doesn't flood the world with entities.
+        Queue<ItemStack> queuedStacks = QUEUED_DROPS.get(owner);
+        for (ItemStack stack : stacks) {
+            if (stack.isEmpty()) {
+                continue;
+            }
+
+            if (queuedStacks == null && DROPS_THIS_TICK.getInt(owner) < MAX_DROPS_PER_TICK) {
+                ItemDropQueue.spawn(owner, stack);
+                continue;
+            }
+
+            if (queuedStacks == null) {
+                queuedStacks = new ArrayDeque<>();
+                QUEUED_DROPS.put(owner, queuedStacks);
+            }
+            queuedStacks.add(stack);
+        }
+    }
+
+    public static void tick() {
+        DROPS_THIS_TICK.clear();
+        if (QUEUED_DROPS.isEmpty()) {
+            return;
+        }
+
+        for (Iterator<Map.Entry<PlayerEntity, Queue<ItemStack>>> iterator = QUEUED_DROPS.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<PlayerEntity, Queue<ItemStack>> entry = iterator.next();
+            PlayerEntity owner = entry.getKey();
+            Queue<ItemStack> queuedStacks = entry.getValue();
+
+            // Players that have left the world get everything they still own dropped at once.
+            boolean isRemoved = owner.isRemoved();
+            while (!queuedStacks.isEmpty() && (isRemoved || DROPS_THIS_TICK.getInt(owner) < MAX_DROPS_PER_TICK)) {
+                ItemDropQueue.spawn(owner, queuedStacks.poll());
+            }
+
+            if (queuedStacks.isEmpty()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public static void flush() {
+        for (Map.Entry<PlayerEntity, Queue<ItemStack>> entry : QUEUED_DROPS.entrySet()) {
+            for (ItemStack stack : entry.getValue()) {
+                entry.getKey().dropItem(stack, true);
+            }
+        }
+        QUEUED_DROPS.clear();
+        DROPS_THIS_TICK.clear();
+    }
+
+    private static void spawn(PlayerEntity owner, ItemStack stack) {
+        owner.dropItem(stack, true);
+        DROPS_THIS_TICK.put(owner, DROPS_THIS_TICK.getInt(owner) + 1);
+    }
+
+    private ItemDropQueue() { }
+}
@@ -0,0 +1,65 @@
+package dev.kir.packedinventory.util.inventory;
+
+import it.unimi.dsi.fastutil.objects.ReferenceLinkedOpenHashSet;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
+import net.minecraft.entity.player.PlayerEntity;
+import net.minecraft.inventory.Inventory;
+import net.minecraft.screen.ScreenHandler;
+import net.minecraft.screen.slot.Slot;
+
+import java.lang.ref.WeakReference;
+import java.util.*;
+
+final class FallbackInventoryCache {
+    private static final Map<PlayerEntity, FallbackInventoryCache> CACHES = Collections.synchronizedMap(new WeakHashMap<>());
+
+    static {
+        ServerPlayConnectionEvents.DISCONNECT.register((handler, server) -> CACHES.remove(handler.player));
+    }
+
+    // Both the screen handler and its inventories (the player's own one, in particular)
+    // lead back to the player, so they're only referenced weakly in order for the player
+    // not to be kept alive by its own cache entry.
+    private final WeakReference<ScreenHandler> screenHandler;
+    private final int slotCount;
+    private final List<WeakReference<Inventory>> inventories;
+
+    private FallbackInventoryCache(ScreenHandler screenHandler) {
+        this.screenHandler = new WeakReference<>(screenHandler);
+        this.slotCount = screenHandler.slots.size();
+
+        Set<Inventory> inventories = new ReferenceLinkedOpenHashSet<>();
+        for (Slot slot : screenHandler.slots) {
+            inventories.add(slot.inventory);
+        }
+
+        this.inventories = new ArrayList<>(inventories.size());
+        for (Inventory inventory : inventories) {
+            this.inventories.add(new WeakReference<>(inventory));
+        }
+    }
+
+    static FallbackInventoryCache of(PlayerEntity player) {
+        // Slots are added when a screen handler is constructed, so its inventories
+        // only need to be collected again once the player opens another screen.
+        ScreenHandler screenHandler = player.currentScreenHandler;
+        FallbackInventoryCache cache = CACHES.get(player);
+        if (cache == null || cache.screenHandler.get() != screenHandler || cache.slotCount != screenHandler.slots.size()) {
+            cache = new FallbackInventoryCache(screenHandler);
+            CACHES.put(player, cache);
+        }
+        return cache;
+    }
+
+    List<Inventory> getInventories(Inventory inventory) {
+        List<Inventory> inventories = new ArrayList<>(this.inventories.size() + 1);
+        inventories.add(inventory);
+        for (WeakReference<Inventory> screenHandlerInventoryReference : this.inventories) {
+            Inventory screenHandlerInventory = screenHandlerInventoryReference.get();
+            if (screenHandlerInventory != null && screenHandlerInventory != inventory) {
+                inventories.add(screenHandlerInventory);
+            }
+        }
+        return inventories.size() == 1 ? List.of(inventory) : inventories;
+    }
+}
@@ -0,0 +1,172 @@
+package dev.kir.packedinventory.util.inventory;
+
+import dev.kir.packedinventory.inventory.NbtItemsInventory;
+import dev.kir.packedinventory.inventory.TransactionalInventory;
+import dev.kir.packedinventory.nbt.NbtItemListCursor;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import net.minecraft.inventory.Inventory;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.item.Items;
+
+import java.util.BitSet;
+import java.util.Map;
+
+public final class InventoryTransferPlanner {
+    private static final int USED_SLOT = -1;
+
+    private final Inventory inventory;
+    private final Map<Item, IntArrayList> partialSlots;
+    private final IntList emptySlots;
+    private int emptySlotCursor;
+
+    private InventoryTransferPlanner(Inventory inventory) {
+        this.inventory = inventory;
+        this.partialSlots = new Reference2ObjectOpenHashMap<>();
+        this.emptySlots = new IntArrayList();
+
+        Inventory indexedInventory = inventory;
+        if (inventory instanceof TransactionalInventory && !((TransactionalInventory)inventory).hasChanges()) {
+            indexedInventory = ((TransactionalInventory)inventory).getInventory();
+        }
+
+        if (indexedInventory instanceof NbtItemsInventory) {
+            this.indexNbtItems((NbtItemsInventory)indexedInventory);
+            return;
+        }
+
+        int size = inventory.size();
+        for (int i = 0; i < size; ++i) {
+            ItemStack stack = inventory.getStack(i);
+            if (stack.isEmpty()) {
+                this.emptySlots.add(i);
+            } else if (InventoryTransferPlanner.canFit(stack)) {
+                this.partialSlots.computeIfAbsent(stack.getItem(), x -> new IntArrayList()).add(i);
+            }
+        }
+    }
+
+    private void indexNbtItems(NbtItemsInventory inventory) {
+        // Packed inventories can be indexed straight from their item list,
+        // without decoding a single stack.
+        int size = inventory.size();
+        BitSet occupiedSlots = new BitSet(size);
+        NbtItemListCursor cursor = NbtItemListCursor.of(inventory.getNbtList().orElse(null));
+        while (cursor.next()) {
+            int slot = cursor.getSlot();
+            Item item = cursor.getItem();
+            if (slot < 0 || slot >= size || item == Items.AIR) {
+                continue;
+            }
+
+            occupiedSlots.set(slot);
+            int maxCount = item.getMaxCount();
+            if (maxCount > 1 && cursor.getCount() < maxCount) {
+                this.addPartialSlot(item, slot);
+            }
+        }
+
+        for (int i = occupiedSlots.nextClearBit(0); i < size; i = occupiedSlots.nextClearBit(i + 1)) {
+            this.emptySlots.add(i);
+        }
+    }
+
+    public static InventoryTransferPlanner of(Inventory inventory) {
+        return new InventoryTransferPlanner(inventory);
+    }
+
+    public Inventory getInventory() {
+        return this.inventory;
+    }
+
+    public boolean transfer(Inventory from, int fromSlot) {
+        ItemStack fromStack = from.getStack(fromSlot);
+        if (fromStack.isEmpty()) {
+            return true;
+        }
+
+        // Top up existing stacks first, and only then fall back to an empty slot,
+        // the same way the slot-by-slot search used to do it.
+        IntArrayList candidates = this.partialSlots.get(fromStack.getItem());
+        if (candidates != null) {
+            int i = 0;
+            while (i < candidates.size() && !fromStack.isEmpty()) {
+                int toSlot = candidates.getInt(i);
+                ItemStack toStack = this.inventory.getStack(toSlot);
+                if (toStack.isEmpty() || !toStack.isOf(fromStack.getItem()) || !InventoryTransferPlanner.canFit(toStack)) {
+                    candidates.removeInt(i);
+                    continue;
+                }
+
+                if (InventoryUtil.isSameSlot(from, fromSlot, this.inventory, toSlot) || !ItemStack.canCombine(toStack, fromStack)) {
+                    ++i;
+                    continue;
+                }
+
+                InventoryUtil.move(from, fromSlot, fromStack, this.inventory, toSlot);
+                toStack = this.inventory.getStack(toSlot);
+                if (!toStack.isEmpty() && InventoryTransferPlanner.canFit(toStack)) {
+                    ++i;
+                } else {
+                    candidates.removeInt(i);
+                }
+            }
+        }
+
+        if (!fromStack.isEmpty()) {
+            int toSlot = this.takeEmptySlot(from, fromSlot, fromStack);
+            if (toSlot < 0) {
+                return false;
+            }
+
+            InventoryUtil.move(from, fromSlot, fromStack, this.inventory, toSlot);
+            ItemStack toStack = this.inventory.getStack(toSlot);
+            if (!toStack.isEmpty() && InventoryTransferPlanner.canFit(toStack)) {
+                this.addPartialSlot(toStack.getItem(), toSlot);
+            }
+        }
+
+        return fromStack.isEmpty();
+    }
+
+    private int takeEmptySlot(Inventory from, int fromSlot, ItemStack stack) {
+        while (this.emptySlotCursor < this.emptySlots.size() && this.emptySlots.getInt(this.emptySlotCursor) == USED_SLOT) {
+            ++this.emptySlotCursor;
+        }
+
+        for (int i = this.emptySlotCursor; i < this.emptySlots.size(); ++i) {
+            int slot = this.emptySlots.getInt(i);
+            if (slot == USED_SLOT) {
+                continue;
+            }
+
+            if (!this.inventory.getStack(slot).isEmpty()) {
+                this.emptySlots.set(i, USED_SLOT);
+                continue;
+            }
+
+            if (InventoryUtil.isSameSlot(from, fromSlot, this.inventory, slot) || !InventoryUtil.canInsert(this.inventory, slot, stack)) {
+                continue;
+            }
+
+            this.emptySlots.set(i, USED_SLOT);
+            return slot;
+        }
+        return -1;
+    }
+
+    private void addPartialSlot(Item item, int slot) {
+        IntArrayList slots = this.partialSlots.computeIfAbsent(item, x -> new IntArrayList());
+        int i = IntArrays.binarySearch(slots.elements(), 0, slots.size(), slot);
+        if (i < 0) {
+            slots.add(~i, slot);
+        }
+    }
+
+    private static boolean canFit(ItemStack stack) {
+        return stack.isStackable() && stack.getCount() < stack.getMaxCount();
+    }
+}
@@ -2,12 +2,21 @@ package dev.kir.packedinventory.util.inventory;
 
 import dev.kir.packedinventory.api.v1.inventory.InventoryAction;
 import dev.kir.packedinventory.inventory.CombinedInventory;
+import dev.kir.packedinventory.inventory.InventorySnapshot;
 import dev.kir.packedinventory.inventory.ListInventory;
+import dev.kir.packedinventory.nbt.NbtItemListCursor;
+import dev.kir.packedinventory.inventory.NbtItemsInventory;
+import dev.kir.packedinventory.inventory.TransactionalInventory;
 import dev.kir.packedinventory.screen.StackReferenceSlot;
 import dev.kir.packedinventory.util.block.entity.BlockEntityUtil;
+import dev.kir.packedinventory.util.entity.ItemDropQueue;
+import it.unimi.dsi.fastutil.Hash;
+import it.unimi.dsi.fastutil.HashCommon;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
 import it.unimi.dsi.fastutil.ints.IntListIterator;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenCustomHashMap;
 import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.inventory.Inventory;
 import net.minecraft.inventory.SidedInventory;
@@ -16,6 +25,7 @@ import net.minecraft.item.ItemStack;
 import net.minecraft.nbt.NbtCompound;
 import net.minecraft.nbt.NbtElement;
 import net.minecraft.nbt.NbtList;
+import net.minecraft.registry.Registries;
 import net.minecraft.screen.slot.Slot;
 import net.minecraft.util.collection.DefaultedList;
 import net.minecraft.util.math.Direction;
@@ -23,6 +33,7 @@ import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
 import java.util.function.BiPredicate;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -36,6 +47,19 @@ public final class InventoryUtil {
 
     private static final IntList EMPTY_SLOTS = new IntArrayList();
 
+    private static final Hash.Strategy<ItemStack> COMBINABLE_STACK_STRATEGY = new Hash.Strategy<>() {
+        @Override
+        public int hashCode(ItemStack stack) {
+            // Consistent with ItemStack.canCombine, which only looks at the item and its NBT.
+            return stack == null ? 0 : HashCommon.mix(System.identityHashCode(stack.getItem()) * 31 + Objects.hashCode(stack.getNbt()));
+        }
+
+        @Override
+        public boolean equals(ItemStack a, ItemStack b) {
+            return a == b || a != null && b != null && ItemStack.canCombine(a, b);
+        }
+    };
+
     public static int indexOf(Inventory inventory, ItemStack stack) {
         int size = inventory.size();
         for (int i = 0; i < size; ++i) {
@@ -72,23 +96,67 @@ public final class InventoryUtil {
         }
 
         if (blockEntityTag.contains(ITEMS_KEY, NbtElement.LIST_TYPE)) {
-            return blockEntityTag.getList(ITEMS_KEY, NbtElement.COMPOUND_TYPE).size() != 0;
+            return NbtItemListCursor.of(blockEntityTag.getList(ITEMS_KEY, NbtElement.COMPOUND_TYPE)).next();
         }
 
         return false;
     }
 
+    public static boolean isInventoryEmpty(ItemStack stack) {
+        return !NbtItemListCursor.of(InventoryUtil.getItemsList(stack)).next();
+    }
+
+    public static int getOccupiedSlotCount(ItemStack stack, int size) {
+        // Entries are counted per slot, since the list may contain several entries
+        // for the same slot (or ones that don't fit into the inventory at all).
+        BitSet occupiedSlots = new BitSet(Math.max(size, 0));
+        NbtItemListCursor cursor = NbtItemListCursor.of(InventoryUtil.getItemsList(stack));
+        while (cursor.next()) {
+            int slot = cursor.getSlot();
+            if (slot >= 0 && slot < size) {
+                occupiedSlots.set(slot);
+            }
+        }
+        return occupiedSlots.cardinality();
+    }
+
+    public static long fingerprint(ItemStack stack) {
+        if (stack.isEmpty()) {
+            return 0;
+        }
+
+        long hash = Registries.ITEM.getRawId(stack.getItem());
+        hash = hash * 31 + stack.getCount();
+
+        NbtCompound nbt = stack.getNbt();
+        if (nbt == null) {
+            return HashCommon.mix(hash);
+        }
+
+        // Only the shape of the stack is hashed (its top-level tag and the slot, id, and
+        // count of each stored item), so computing a fingerprint is much cheaper than
+        // comparing two stacks with ItemStack.areEqual.
+        hash = hash * 31 + nbt.getSize();
+        NbtList items = InventoryUtil.getItemsList(stack);
+        if (items != null) {
+            hash = hash * 31 + items.size();
+            for (int i = 0; i < items.size(); ++i) {
+                NbtCompound item = items.getCompound(i);
+                hash = hash * 31 + NbtItemListUtil.getSlot(item);
+                hash = hash * 31 + item.getString("id").hashCode();
+                hash = hash * 31 + item.getByte(COUNT_KEY);
+            }
+        }
+        return HashCommon.mix(hash);
+    }
+
     public static int firstIndexOf(Inventory parentInventory, Inventory targetInventory) {
         if (Objects.equals(parentInventory, targetInventory)) {
             return 0;
         }
 
-        int currentIndex = 0;
-        for (Inventory innerInventory : (Iterable<Inventory>)CombinedInventory.asStream(parentInventory)::iterator) {
-            if (Objects.equals(targetInventory, innerInventory)) {
-                return currentIndex;
-            }
-            currentIndex += innerInventory.size();
+        if (parentInventory instanceof CombinedInventory) {
+            return ((CombinedInventory)parentInventory).getOffset(targetInventory);
         }
         return -1;
     }
@@ -135,26 +203,26 @@ public final class InventoryUtil {
     }
 
     public static boolean isSameSlot(Inventory a, int aSlot, Inventory b, int bSlot) {
-        if (!(a instanceof CombinedInventory) && !(b instanceof CombinedInventory)) {
-            return Objects.equals(a, b) && aSlot == bSlot;
+        if (a instanceof TransactionalInventory) {
+            a = ((TransactionalInventory)a).getInventory();
         }
-
-        for (Inventory innerA : (Iterable<Inventory>)CombinedInventory.asStream(a)::iterator) {
-            if (aSlot < innerA.size()) {
-                a = innerA;
-                break;
-            }
-            aSlot -= innerA.size();
+        if (b instanceof TransactionalInventory) {
+            b = ((TransactionalInventory)b).getInventory();
         }
 
-        for (Inventory innerB : (Iterable<Inventory>)CombinedInventory.asStream(b)::iterator) {
-            if (bSlot < innerB.size()) {
-                b = innerB;
-                break;
-            }
-            bSlot -= innerB.size();
+        if (a instanceof CombinedInventory) {
+            CombinedInventory combinedA = (CombinedInventory)a;
+            a = combinedA.getInnerInventory(aSlot);
+            aSlot = combinedA.getInnerSlot(aSlot);
+        }
+        if (b instanceof CombinedInventory) {
+            CombinedInventory combinedB = (CombinedInventory)b;
+            b = combinedB.getInnerInventory(bSlot);
+            bSlot = combinedB.getInnerSlot(bSlot);
         }
-        return InventoryUtil.isSameSlot(a, aSlot, b, bSlot);
+
+        // Combined inventories are always flattened, so their inner inventories can be compared directly.
+        return a != null && b != null && Objects.equals(a, b) && aSlot == bSlot;
     }
 
     public static boolean canInsert(Inventory inventory, int slot, ItemStack stack) {
@@ -193,6 +261,10 @@ public final class InventoryUtil {
     }
 
     public static Inventory zip(Inventory inventory) {
+        if (inventory instanceof InventorySnapshot) {
+            return ((InventorySnapshot)inventory).zip();
+        }
+
         int size = inventory.size();
         DefaultedList<ItemStack> items = DefaultedList.ofSize(size);
         for (int i = 0; i < size; ++i) {
@@ -203,33 +275,99 @@ public final class InventoryUtil {
 
     public static DefaultedList<ItemStack> zip(DefaultedList<ItemStack> inventory) {
         DefaultedList<ItemStack> zipped = DefaultedList.ofSize(inventory.size());
-        boolean[] empty = new boolean[inventory.size()];
+        Object2IntMap<ItemStack> zippedIndices = new Object2IntOpenCustomHashMap<>(COMBINABLE_STACK_STRATEGY);
+        zippedIndices.defaultReturnValue(-1);
         for (int i = 0; i < inventory.size(); ++i) {
             ItemStack stack = inventory.get(i);
-            if (empty[i] || stack.isEmpty()) {
+            if (stack.isEmpty()) {
                 continue;
             }
 
-            stack = stack.copy();
-            for (int j = i + 1; j < inventory.size(); ++j) {
-                ItemStack nextStack = inventory.get(j);
-                if (!empty[j] && ItemStack.canCombine(stack, nextStack)) {
-                    stack.setCount(stack.getCount() + nextStack.getCount());
-                    empty[j] = true;
-                }
+            int j = zippedIndices.getInt(stack);
+            if (j < 0) {
+                zippedIndices.put(stack, zipped.size());
+                zipped.add(stack.copy());
+                continue;
             }
-            zipped.add(stack);
+
+            ItemStack zippedStack = zipped.get(j);
+            zippedStack.setCount(zippedStack.getCount() + stack.getCount());
         }
         return zipped;
     }
 
+    public static boolean batch(Inventory from, Inventory to, BooleanSupplier action) {
+        // A view can only defer its writes if the other side cannot observe the same
+        // stack through another view, since that one would see stale contents.
+        NbtItemsInventory nbtFrom = from instanceof NbtItemsInventory && InventoryUtil.firstIndexOf(to, from) == -1 ? (NbtItemsInventory)from : null;
+        NbtItemsInventory nbtTo = to instanceof NbtItemsInventory && InventoryUtil.firstIndexOf(from, to) == -1 ? (NbtItemsInventory)to : null;
+        if (nbtFrom != null) {
+            nbtFrom.beginBatch();
+        }
+        if (nbtTo != null) {
+            nbtTo.beginBatch();
+        }
+
+        try {
+            return action.getAsBoolean();
+        } finally {
+            if (nbtTo != null) {
+                nbtTo.endBatch();
+            }
+            if (nbtFrom != null) {
+                nbtFrom.endBatch();
+            }
+        }
+    }
+
+    public static boolean transaction(Inventory from, Inventory to, BiPredicate<Inventory, Inventory> action) {
+        if (!InventoryUtil.canIsolate(from, to)) {
+            return InventoryUtil.batch(from, to, () -> action.test(from, to));
+        }
+
+        // The action is simulated against shadow copies of both sides,
+        // which are only written back if it succeeds.
+        TransactionalInventory transactionalFrom = TransactionalInventory.of(from);
+        TransactionalInventory transactionalTo = TransactionalInventory.of(to, transactionalFrom);
+        boolean success = action.test(transactionalFrom, transactionalTo);
+        if (success) {
+            transactionalTo.commit();
+            transactionalFrom.commit();
+        } else {
+            transactionalTo.abort();
+            transactionalFrom.abort();
+        }
+        return success;
+    }
+
+    private static boolean canIsolate(Inventory from, Inventory to) {
+        if (from instanceof SidedInventory || to instanceof SidedInventory) {
+            return false;
+        }
+
+        // Both sides of a transaction are simulated independently of each other,
+        // which only works as long as they cannot observe each other's slots
+        // (e.g., through two views of the same stack).
+        for (Inventory innerInventory : (Iterable<Inventory>)CombinedInventory.asStream(from)::iterator) {
+            if (InventoryUtil.firstIndexOf(to, innerInventory) != -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public static boolean transfer(Inventory from, Inventory to) {
+        return InventoryUtil.batch(from, to, () -> InventoryUtil.transferAll(from, to));
+    }
+
+    private static boolean transferAll(Inventory from, Inventory to) {
+        InventoryTransferPlanner planner = InventoryTransferPlanner.of(to);
         boolean success = true;
         int size = from.size();
 
         for (int i = 0; i < size; i++) {
             if (!from.getStack(i).isEmpty()) {
-                success &= InventoryUtil.transfer(from, i, to, -1);
+                success &= planner.transfer(from, i);
             }
         }
 
@@ -237,25 +375,30 @@ public final class InventoryUtil {
     }
 
     public static boolean transfer(Inventory from, IntList fromSlots, Inventory to) {
-        for (IntListIterator iterator = fromSlots.iterator(); iterator.hasNext(); ) {
-            int fromSlot = iterator.nextInt();
-            if (InventoryUtil.transfer(from, fromSlot, to, -1)) {
-                iterator.remove();
+        return InventoryUtil.batch(from, to, () -> {
+            InventoryTransferPlanner planner = InventoryTransferPlanner.of(to);
+            for (IntListIterator iterator = fromSlots.iterator(); iterator.hasNext(); ) {
+                int fromSlot = iterator.nextInt();
+                if (planner.transfer(from, fromSlot)) {
+                    iterator.remove();
+                }
             }
-        }
 
-        return fromSlots.isEmpty();
+            return fromSlots.isEmpty();
+        });
     }
 
     public static boolean transfer(Inventory from, Inventory to, IntList toSlots) {
-        for (IntListIterator iterator = toSlots.iterator(); iterator.hasNext(); ) {
-            int toSlot = iterator.nextInt();
-            if (InventoryUtil.transfer(from, -1, to, toSlot)) {
-                iterator.remove();
+        return InventoryUtil.batch(from, to, () -> {
+            for (IntListIterator iterator = toSlots.iterator(); iterator.hasNext(); ) {
+                int toSlot = iterator.nextInt();
+                if (InventoryUtil.fill(from, to, toSlot)) {
+                    iterator.remove();
+                }
             }
-        }
 
-        return toSlots.isEmpty();
+            return toSlots.isEmpty();
+        });
     }
 
     public static boolean transfer(Inventory from, int fromSlot, Inventory to) {
@@ -271,21 +414,55 @@ public final class InventoryUtil {
             return InventoryUtil.transfer(from, to);
         }
 
-        int originalFromSlot = fromSlot;
-        int originalToSlot = toSlot;
+        return InventoryUtil.batch(from, to, () -> InventoryUtil.transferStack(from, fromSlot, to, toSlot));
+    }
 
-        fromSlot = fromSlot >= 0 ? fromSlot : InventoryUtil.indexOfExtractionSlot(from, to, toSlot);
-        toSlot = toSlot >= 0 ? toSlot : InventoryUtil.indexOfInsertionSlot(from, fromSlot, to);
-        if (fromSlot < 0 || toSlot < 0) {
-            return false;
+    private static boolean transferStack(Inventory from, int fromSlot, Inventory to, int toSlot) {
+        if (fromSlot < 0 && toSlot < 0) {
+            return InventoryUtil.transferAll(from, to);
+        }
+
+        if (toSlot < 0) {
+            return InventoryTransferPlanner.of(to).transfer(from, fromSlot);
+        }
+
+        if (fromSlot < 0) {
+            return InventoryUtil.fill(from, to, toSlot);
         }
 
         ItemStack fromStack = from.getStack(fromSlot);
-        ItemStack toStack = to.getStack(toSlot);
         if (!InventoryUtil.canInsertOrPartiallyCombine(to, toSlot, fromStack)) {
             return false;
         }
 
+        InventoryUtil.move(from, fromSlot, fromStack, to, toSlot);
+        return fromStack.isEmpty();
+    }
+
+    private static boolean fill(Inventory from, Inventory to, int toSlot) {
+        for (int i = from.size() - 1; i >= 0; i--) {
+            ItemStack fromStack = from.getStack(i);
+            if (fromStack.isEmpty() || InventoryUtil.isSameSlot(from, i, to, toSlot)) {
+                continue;
+            }
+
+            if (!InventoryUtil.canInsertOrPartiallyCombine(to, toSlot, fromStack)) {
+                continue;
+            }
+
+            InventoryUtil.move(from, i, fromStack, to, toSlot);
+            ItemStack toStack = to.getStack(toSlot);
+            boolean isToStackFilled = !toStack.isStackable() || toStack.getCount() == toStack.getMaxCount();
+            if (isToStackFilled) {
+                return fromStack.isEmpty();
+            }
+        }
+
+        return false;
+    }
+
+    static void move(Inventory from, int fromSlot, ItemStack fromStack, Inventory to, int toSlot) {
+        ItemStack toStack = to.getStack(toSlot);
         if (toStack.isEmpty()) {
             toStack = fromStack.copy();
             fromStack.setCount(0);
@@ -301,23 +478,107 @@ public final class InventoryUtil {
         } else {
             from.setStack(fromSlot, fromStack);
         }
+    }
 
-        boolean isToStackFilled = originalFromSlot >= 0 || !toStack.isStackable() || toStack.getCount() == toStack.getMaxCount();
-        if (fromStack.isEmpty() && isToStackFilled) {
-            return true;
+    public static void drop(Inventory inventory, PlayerEntity owner) {
+        int size = inventory.size();
+        List<ItemStack> stacks;
+        if (inventory instanceof NbtItemsInventory) {
+            IntList slots = new IntArrayList(size);
+            for (int i = 0; i < size; i++) {
+                slots.add(i);
+            }
+            stacks = ((NbtItemsInventory)inventory).removeStacks(slots);
+        } else {
+            stacks = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                stacks.add(inventory.removeStack(i));
+            }
         }
 
-        return InventoryUtil.transfer(from, originalFromSlot, to, originalToSlot);
+        ItemDropQueue.drop(owner, InventoryUtil.merge(stacks));
     }
 
-    public static void drop(Inventory inventory, PlayerEntity owner) {
+    public static void sort(Inventory inventory) {
         int size = inventory.size();
+        List<ItemStack> stacks = new ArrayList<>(size);
         for (int i = 0; i < size; i++) {
-            ItemStack stack = inventory.removeStack(i);
+            stacks.add(inventory.getStack(i).copy());
+        }
+
+        List<ItemStack> sorted = InventoryUtil.merge(stacks, inventory.getMaxCountPerStack());
+        sorted.sort(Comparator.comparingInt(x -> Registries.ITEM.getRawId(x.getItem())));
+        if (inventory instanceof NbtItemsInventory) {
+            ((NbtItemsInventory)inventory).replaceAll(sorted);
+            return;
+        }
+
+        // Other inventories may restrict what goes into each of their slots,
+        // so every stack is placed into the first free slot that accepts it.
+        // If some stack doesn't fit anywhere, the inventory is left as is.
+        ItemStack[] placedStacks = new ItemStack[size];
+        int firstFreeSlot = 0;
+        for (ItemStack stack : sorted) {
+            int slot = firstFreeSlot;
+            while (slot < size && (placedStacks[slot] != null || !inventory.isValid(slot, stack))) {
+                ++slot;
+            }
+
+            if (slot >= size) {
+                return;
+            }
+
+            placedStacks[slot] = stack;
+            while (firstFreeSlot < size && placedStacks[firstFreeSlot] != null) {
+                ++firstFreeSlot;
+            }
+        }
+
+        for (int i = 0; i < size; i++) {
+            inventory.setStack(i, placedStacks[i] == null ? ItemStack.EMPTY : placedStacks[i]);
+        }
+        inventory.markDirty();
+    }
+
+    public static List<ItemStack> merge(List<ItemStack> stacks) {
+        return InventoryUtil.merge(stacks, Integer.MAX_VALUE);
+    }
+
+    public static List<ItemStack> merge(List<ItemStack> stacks, int maxCountPerStack) {
+        // Stacks that are still open for merging are indexed by their item and NBT,
+        // so identical stacks are combined (up to their max count) in a single pass.
+        List<ItemStack> merged = new ArrayList<>(stacks.size());
+        Object2IntMap<ItemStack> openIndices = new Object2IntOpenCustomHashMap<>(COMBINABLE_STACK_STRATEGY);
+        openIndices.defaultReturnValue(-1);
+        for (ItemStack stack : stacks) {
+            if (stack.isEmpty()) {
+                continue;
+            }
+
+            int maxCount = Math.min(stack.getMaxCount(), maxCountPerStack);
+            int i = openIndices.getInt(stack);
+            if (i >= 0) {
+                ItemStack mergedStack = merged.get(i);
+                int count = Math.min(stack.getCount(), maxCount - mergedStack.getCount());
+                mergedStack.increment(count);
+                stack.decrement(count);
+                if (mergedStack.getCount() >= maxCount) {
+                    openIndices.removeInt(mergedStack);
+                }
+            }
+
+            while (stack.getCount() > maxCount) {
+                merged.add(stack.split(maxCount));
+            }
+
             if (!stack.isEmpty()) {
-                owner.dropItem(stack, true);
+                if (stack.getCount() < maxCount) {
+                    openIndices.put(stack, merged.size());
+                }
+                merged.add(stack);
             }
         }
+        return merged;
     }
 
     public static Inventory getPlayerInventoryAndNormalizeSlots(PlayerEntity player, IntList slots) {
@@ -348,21 +609,33 @@ public final class InventoryUtil {
     }
 
     public static DefaultedList<ItemStack> getInventory(ItemStack stack, int size) {
+        return InventoryUtil.getInventory(stack, 0, size);
+    }
+
+    public static DefaultedList<ItemStack> getInventory(ItemStack stack, int offset, int size) {
         DefaultedList<ItemStack> inventory = DefaultedList.ofSize(size, ItemStack.EMPTY);
         NbtList list = InventoryUtil.getItemsList(stack);
         if (list != null) {
             for (int i = 0; i < list.size(); ++i) {
                 NbtCompound nbt = list.getCompound(i);
-                int slot = nbt.contains(SLOT_KEY) ? nbt.getByte(SLOT_KEY) : i;
-                if (slot < inventory.size()) {
-                    inventory.set(slot, ItemStack.fromNbt(nbt));
+                int slot = (nbt.contains(SLOT_KEY) ? NbtItemListUtil.getSlot(nbt) : i) - offset;
+                if (slot >= 0 && slot < inventory.size()) {
+                    inventory.set(slot, NbtItemListUtil.asItemStack(nbt));
                 }
             }
         }
         return inventory;
     }
 
-    private static int getInventorySize(ItemStack stack) {
+    public static InventorySnapshot getInventorySnapshot(ItemStack stack) {
+        return InventoryUtil.getInventorySnapshot(stack, InventoryUtil.getInventorySize(stack));
+    }
+
+    public static InventorySnapshot getInventorySnapshot(ItemStack stack, int size) {
+        return InventorySnapshot.of(InventoryUtil.getItemsList(stack), size);
+    }
+
+    public static int getInventorySize(ItemStack stack) {
         Optional<Integer> size = BlockEntityUtil.getBlockEntityType(stack.getItem()).flatMap(BlockEntityUtil::getInventorySize);
         if (size.isPresent()) {
             return size.get();
@@ -375,10 +648,9 @@ public final class InventoryUtil {
 
         int maxSlot = -1;
         int entryCount = 0;
-        for (NbtElement item : items) {
-            if (item instanceof NbtCompound && ((NbtCompound)item).contains(SLOT_KEY)) {
-                maxSlot = Math.max(maxSlot, ((NbtCompound)item).getByte(SLOT_KEY));
-            }
+        NbtItemListCursor cursor = NbtItemListCursor.of(items);
+        while (cursor.next()) {
+            maxSlot = Math.max(maxSlot, cursor.getSlot());
             ++entryCount;
         }
 
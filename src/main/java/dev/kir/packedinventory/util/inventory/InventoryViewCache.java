@@ -0,0 +1,65 @@
+package dev.kir.packedinventory.util.inventory;
+
+import com.mojang.datafixers.util.Either;
+import dev.kir.packedinventory.api.v1.FailureReason;
+import it.unimi.dsi.fastutil.ints.Int2BooleanMap;
+import it.unimi.dsi.fastutil.ints.Int2BooleanOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Reference2ObjectOpenHashMap;
+import net.minecraft.inventory.Inventory;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+final class InventoryViewCache {
+    private final Map<Inventory, Int2ObjectMap<Optional<Either<Inventory, FailureReason>>>> views;
+    private final Map<Inventory, Int2BooleanMap> nonEmptyViews;
+
+    InventoryViewCache() {
+        this.views = new Reference2ObjectOpenHashMap<>();
+        this.nonEmptyViews = new Reference2ObjectOpenHashMap<>();
+    }
+
+    Optional<Either<Inventory, FailureReason>> getView(Inventory inventory, int slot, Supplier<Optional<Either<Inventory, FailureReason>>> viewSupplier) {
+        Int2ObjectMap<Optional<Either<Inventory, FailureReason>>> views = this.views.computeIfAbsent(inventory, x -> new Int2ObjectOpenHashMap<>());
+        Optional<Either<Inventory, FailureReason>> view = views.get(slot);
+        if (view == null) {
+            view = viewSupplier.get();
+            views.put(slot, view);
+        }
+        return view;
+    }
+
+    boolean isNonEmptyView(Inventory inventory, int slot, BooleanSupplier isNonEmptyView) {
+        Int2BooleanMap nonEmptyViews = this.nonEmptyViews.computeIfAbsent(inventory, x -> new Int2BooleanOpenHashMap());
+        if (nonEmptyViews.containsKey(slot)) {
+            return nonEmptyViews.get(slot);
+        }
+
+        boolean isNonEmpty = isNonEmptyView.getAsBoolean();
+        nonEmptyViews.put(slot, isNonEmpty);
+        return isNonEmpty;
+    }
+
+    void invalidate(Inventory inventory, int slot) {
+        // Different inventories may still share the same underlying slots
+        // (e.g., a combined inventory and one of its parts), so everything
+        // that wasn't resolved through the given inventory is dropped altogether.
+        Int2ObjectMap<Optional<Either<Inventory, FailureReason>>> views = this.views.get(inventory);
+        Int2BooleanMap nonEmptyViews = this.nonEmptyViews.get(inventory);
+        this.views.clear();
+        this.nonEmptyViews.clear();
+
+        if (views != null) {
+            views.remove(slot);
+            this.views.put(inventory, views);
+        }
+        if (nonEmptyViews != null) {
+            nonEmptyViews.remove(slot);
+            this.nonEmptyViews.put(inventory, nonEmptyViews);
+        }
+    }
+}
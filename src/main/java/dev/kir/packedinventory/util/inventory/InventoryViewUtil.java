@@ -6,27 +6,56 @@ import dev.kir.packedinventory.api.v1.inventory.InventoryValidationFailureHandle
 import dev.kir.packedinventory.api.v1.inventory.InventoryViewHandlerRegistry;
 import dev.kir.packedinventory.api.v1.inventory.InventoryViewerRegistry;
 import dev.kir.packedinventory.inventory.CombinedInventory;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
 import it.unimi.dsi.fastutil.ints.IntListIterator;
 import net.minecraft.entity.player.PlayerEntity;
 import net.minecraft.inventory.Inventory;
-import net.minecraft.screen.slot.Slot;
 
-import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Optional;
 import java.util.function.BiConsumer;
 import java.util.function.BiPredicate;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 
 public final class InventoryViewUtil {
+    private static final ThreadLocal<InventoryViewCache> VIEW_CACHE = new ThreadLocal<>();
+
+    public static boolean withViewCache(BooleanSupplier action) {
+        if (VIEW_CACHE.get() != null) {
+            return action.getAsBoolean();
+        }
+
+        // Views resolved while performing a single action (including fallback resolutions
+        // and answers to isNonEmptyView, which the registry doesn't cache) are reused
+        // until the slots they were resolved from are modified.
+        VIEW_CACHE.set(new InventoryViewCache());
+        try {
+            return action.getAsBoolean();
+        } finally {
+            VIEW_CACHE.remove();
+        }
+    }
+
+    public static void invalidateView(Inventory inventory, int slot, PlayerEntity player) {
+        InventoryViewCache viewCache = VIEW_CACHE.get();
+        if (viewCache != null) {
+            viewCache.invalidate(inventory, slot);
+        }
+        InventoryViewerRegistry.getInstance().invalidate(inventory, slot, player);
+    }
+
     public static boolean isNonEmptyView(Inventory inventory, int slot, PlayerEntity player) {
-        InventoryViewerRegistry registry = InventoryViewerRegistry.getInstance();
-        if (!registry.hasView(inventory, slot, player)) {
-            return false;
+        InventoryViewCache viewCache = VIEW_CACHE.get();
+        if (viewCache != null) {
+            return viewCache.isNonEmptyView(inventory, slot, () -> InventoryViewUtil.computeIsNonEmptyView(inventory, slot, player));
         }
+        return InventoryViewUtil.computeIsNonEmptyView(inventory, slot, player);
+    }
 
-        Optional<Inventory> view = registry.forceView(inventory, slot, player);
-        return view.isPresent() && view.get().size() > 0;
+    private static boolean computeIsNonEmptyView(Inventory inventory, int slot, PlayerEntity player) {
+        return InventoryViewerRegistry.getInstance().getViewMetadata(inventory, slot, player).map(x -> x.getSize() > 0).orElse(false);
     }
 
     public static boolean handleView(Inventory inventory, int slot, PlayerEntity player) {
@@ -119,7 +148,10 @@ public final class InventoryViewUtil {
                 continue;
             }
 
-            if (InventoryViewUtil.transferFromView(fromView, inventory, toSlots, player)) {
+            // The slot holding the view changes along with its contents.
+            boolean isTransferred = InventoryViewUtil.transferFromView(fromView, inventory, toSlots, player);
+            InventoryViewUtil.invalidateView(inventory, fromSlot, player);
+            if (isTransferred) {
                 iterator.remove();
             }
         }
@@ -127,17 +159,31 @@ public final class InventoryViewUtil {
     }
 
     private static boolean transferFromView(Inventory from, Inventory to, IntList toSlots, PlayerEntity player) {
-        for (IntListIterator iterator = toSlots.iterator(); iterator.hasNext(); ) {
-            if (!from.canPlayerUse(player)) {
-                return false;
-            }
+        // Slots are only crossed off once the transaction has actually been committed.
+        IntList remainingSlots = new IntArrayList(toSlots.size());
+        boolean isCommitted = InventoryUtil.transaction(from, to, (transactionalFrom, transactionalTo) -> {
+            remainingSlots.clear();
+            for (int i = 0; i < toSlots.size(); ++i) {
+                if (!transactionalFrom.canPlayerUse(player)) {
+                    return false;
+                }
 
-            int toSlot = iterator.nextInt();
-            if (InventoryUtil.transfer(from, -1, to, toSlot)) {
-                iterator.remove();
+                int toSlot = toSlots.getInt(i);
+                boolean isTransferred = InventoryUtil.transfer(transactionalFrom, -1, transactionalTo, toSlot);
+                InventoryViewUtil.invalidateView(to, toSlot, player);
+                if (!isTransferred) {
+                    remainingSlots.add(toSlot);
+                }
             }
+            return true;
+        });
+
+        if (!isCommitted) {
+            return false;
         }
 
+        toSlots.clear();
+        toSlots.addAll(remainingSlots);
         return toSlots.isEmpty();
     }
 
@@ -149,7 +195,10 @@ public final class InventoryViewUtil {
                 continue;
             }
 
-            if (InventoryViewUtil.transferToView(inventory, fromSlots, toView, player)) {
+            // The slot holding the view changes along with its contents.
+            boolean isTransferred = InventoryViewUtil.transferToView(inventory, fromSlots, toView, player);
+            InventoryViewUtil.invalidateView(inventory, toSlot, player);
+            if (isTransferred) {
                 return true;
             }
         }
@@ -157,17 +206,32 @@ public final class InventoryViewUtil {
     }
 
     private static boolean transferToView(Inventory from, IntList fromSlots, Inventory to, PlayerEntity player) {
-        for (IntListIterator iterator = fromSlots.iterator(); iterator.hasNext(); ) {
-            if (!from.canPlayerUse(player)) {
-                return false;
-            }
+        // Slots are only crossed off once the transaction has actually been committed.
+        IntList remainingSlots = new IntArrayList(fromSlots.size());
+        boolean isCommitted = InventoryUtil.transaction(from, to, (transactionalFrom, transactionalTo) -> {
+            remainingSlots.clear();
+            InventoryTransferPlanner planner = InventoryTransferPlanner.of(transactionalTo);
+            for (int i = 0; i < fromSlots.size(); ++i) {
+                if (!transactionalFrom.canPlayerUse(player)) {
+                    return false;
+                }
 
-            int fromSlot = iterator.nextInt();
-            if (InventoryUtil.transfer(from, fromSlot, to, -1)) {
-                iterator.remove();
+                int fromSlot = fromSlots.getInt(i);
+                boolean isTransferred = planner.transfer(transactionalFrom, fromSlot);
+                InventoryViewUtil.invalidateView(from, fromSlot, player);
+                if (!isTransferred) {
+                    remainingSlots.add(fromSlot);
+                }
             }
+            return true;
+        });
+
+        if (!isCommitted) {
+            return false;
         }
 
+        fromSlots.clear();
+        fromSlots.addAll(remainingSlots);
         return fromSlots.isEmpty();
     }
 
@@ -178,11 +242,26 @@ public final class InventoryViewUtil {
         });
     }
 
+    public static boolean sortViews(Inventory inventory, IntList slots, PlayerEntity player) {
+        return InventoryViewUtil.handleViews(inventory, slots, player, (view, slot) -> {
+            InventoryUtil.sort(view);
+            return false;
+        });
+    }
+
     public static Optional<Inventory> tryGetView(Inventory inventory, int slot, PlayerEntity player) {
         return InventoryViewUtil.getView(inventory, slot, player).flatMap(x -> x.left());
     }
 
     public static Optional<Either<Inventory, FailureReason>> getView(Inventory inventory, int slot, PlayerEntity player) {
+        InventoryViewCache viewCache = VIEW_CACHE.get();
+        if (viewCache != null) {
+            return viewCache.getView(inventory, slot, () -> InventoryViewUtil.computeView(inventory, slot, player));
+        }
+        return InventoryViewUtil.computeView(inventory, slot, player);
+    }
+
+    private static Optional<Either<Inventory, FailureReason>> computeView(Inventory inventory, int slot, PlayerEntity player) {
         InventoryViewerRegistry registry = InventoryViewerRegistry.getInstance();
         Optional<Either<Inventory, FailureReason>> view = registry.view(inventory, slot, player);
         if (view.isEmpty()) {
@@ -194,12 +273,7 @@ public final class InventoryViewUtil {
             return view;
         }
 
-        LinkedHashSet<Inventory> availableInventories = new LinkedHashSet<>();
-        availableInventories.add(inventory);
-        for (Slot screenHandlerSlot : player.currentScreenHandler.slots) {
-            availableInventories.add(screenHandlerSlot.inventory);
-        }
-
+        List<Inventory> availableInventories = FallbackInventoryCache.of(player).getInventories(inventory);
         if (availableInventories.size() == 1) {
             return view;
         }
@@ -1,17 +1,29 @@
 package dev.kir.packedinventory.util.inventory;
 
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import net.minecraft.item.ItemStack;
+import net.minecraft.nbt.AbstractNbtNumber;
+import net.minecraft.nbt.NbtByte;
 import net.minecraft.nbt.NbtCompound;
 import net.minecraft.nbt.NbtElement;
 import net.minecraft.nbt.NbtList;
 
-import java.util.Collections;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.function.Consumer;
 
 public final class NbtItemListUtil {
-    private static final Comparator<NbtElement> SLOT_COMPARATOR = Comparator.comparingInt(x -> x instanceof NbtCompound ? ((NbtCompound)x).getByte(InventoryUtil.SLOT_KEY) : 0);
+    public static final int MAX_BYTE_SLOT_COUNT = 256;
+
+    private static final Map<NbtCompound, WeakReference<NbtCompound>> INTERNED_NBTS = new WeakHashMap<>();
+
+    private static final Comparator<NbtElement> SLOT_COMPARATOR = Comparator.comparingInt(x -> x instanceof NbtCompound ? NbtItemListUtil.getSlot((NbtCompound)x) : 0);
 
     @SuppressWarnings("unchecked")
     public static void clean(NbtList list) {
@@ -21,9 +33,7 @@ public final class NbtItemListUtil {
 
         Iterator<NbtCompound> iterator = (Iterator<NbtCompound>)(Object)list.iterator();
         while (iterator.hasNext()) {
-            NbtCompound nbt = iterator.next();
-            String id = nbt.getString("id");
-            if ("air".equals(id) || "minecraft:air".equals(id) || nbt.getByte(InventoryUtil.COUNT_KEY) <= 0) {
+            if (NbtItemListUtil.isEmpty(iterator.next())) {
                 iterator.remove();
             }
         }
@@ -33,10 +43,79 @@ public final class NbtItemListUtil {
         list.sort(SLOT_COMPARATOR);
     }
 
+    public static void normalize(NbtList list) {
+        if (NbtItemListUtil.isNormalized(list)) {
+            return;
+        }
+
+        NbtItemListUtil.clean(list);
+        NbtItemListUtil.sort(list);
+    }
+
+    public static boolean isNormalized(NbtList list) {
+        int size = list.size();
+        if (size == 0) {
+            return true;
+        }
+
+        if (list.getHeldType() != NbtElement.COMPOUND_TYPE) {
+            return false;
+        }
+
+        int previousSlot = -1;
+        for (int i = 0; i < size; ++i) {
+            NbtCompound nbt = list.getCompound(i);
+            int slot = NbtItemListUtil.getSlot(nbt);
+            if (slot < previousSlot || NbtItemListUtil.isEmpty(nbt)) {
+                return false;
+            }
+            previousSlot = slot;
+        }
+        return true;
+    }
+
+    public static boolean isEmpty(NbtCompound nbt) {
+        String id = nbt.getString("id");
+        return "air".equals(id) || "minecraft:air".equals(id) || nbt.getByte(InventoryUtil.COUNT_KEY) <= 0;
+    }
+
     public static int binarySearch(NbtList list, int slot) {
-        NbtCompound target = new NbtCompound();
-        target.putInt(InventoryUtil.SLOT_KEY, slot);
-        return Collections.binarySearch(list, target, SLOT_COMPARATOR);
+        int low = 0;
+        int high = list.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midSlot = NbtItemListUtil.getSlot(list.getCompound(mid));
+            if (midSlot < slot) {
+                low = mid + 1;
+            } else if (midSlot > slot) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return ~low;
+    }
+
+    public static int getSlot(NbtCompound nbt) {
+        // Containers with no more than 256 slots use vanilla's unsigned byte keys,
+        // while larger ones store their slots as plain ints.
+        NbtElement slot = nbt.get(InventoryUtil.SLOT_KEY);
+        if (slot instanceof NbtByte) {
+            return ((NbtByte)slot).byteValue() & 255;
+        }
+        return slot instanceof AbstractNbtNumber ? ((AbstractNbtNumber)slot).intValue() : 0;
+    }
+
+    public static void putSlot(NbtCompound nbt, int slot, boolean isWide) {
+        if (isWide) {
+            nbt.putInt(InventoryUtil.SLOT_KEY, slot);
+        } else {
+            nbt.putByte(InventoryUtil.SLOT_KEY, (byte)slot);
+        }
+    }
+
+    public static boolean isWide(int size) {
+        return size > MAX_BYTE_SLOT_COUNT;
     }
 
     public static ItemStack get(NbtList list, int slot) {
@@ -67,18 +146,20 @@ public final class NbtItemListUtil {
         if (stack.isEmpty()) {
             list.remove(i);
         } else {
+            stackNbt = stackNbt.copy();
             stackNbt.putByte(InventoryUtil.COUNT_KEY, (byte)stack.getCount());
+            list.set(i, stackNbt);
         }
         return splitStack;
     }
 
-    public static void insert(NbtList list, int slot, ItemStack stack) {
+    public static void insert(NbtList list, int slot, ItemStack stack, boolean isWide) {
         if (stack.isEmpty()) {
             NbtItemListUtil.remove(list, slot);
             return;
         }
 
-        NbtCompound stackNbt = asCompound(stack, slot);
+        NbtCompound stackNbt = asCompound(stack, slot, isWide);
         int i = binarySearch(list, slot);
         if (i >= 0) {
             list.set(i, stackNbt);
@@ -93,7 +174,39 @@ public final class NbtItemListUtil {
         }
     }
 
-    public static void update(NbtList list, int slot, Consumer<ItemStack> stackUpdater) {
+    public static void merge(NbtList list, Int2ObjectMap<ItemStack> stacks, boolean isWide) {
+        if (stacks.isEmpty()) {
+            return;
+        }
+
+        int[] slots = stacks.keySet().toIntArray();
+        Arrays.sort(slots);
+
+        int size = list.size();
+        List<NbtElement> merged = new ArrayList<>(size + slots.length);
+        int i = 0;
+        for (int slot : slots) {
+            while (i < size && getSlot(list.getCompound(i)) < slot) {
+                merged.add(list.get(i++));
+            }
+            while (i < size && getSlot(list.getCompound(i)) == slot) {
+                ++i;
+            }
+
+            ItemStack stack = stacks.get(slot);
+            if (!stack.isEmpty()) {
+                merged.add(asCompound(stack, slot, isWide));
+            }
+        }
+        while (i < size) {
+            merged.add(list.get(i++));
+        }
+
+        list.clear();
+        list.addAll(merged);
+    }
+
+    public static void update(NbtList list, int slot, boolean isWide, Consumer<ItemStack> stackUpdater) {
         int i = binarySearch(list, slot);
         if (i < 0) {
             return;
@@ -101,12 +214,12 @@ public final class NbtItemListUtil {
 
         ItemStack stack = asItemStack(list.getCompound(i));
         stackUpdater.accept(stack);
-        list.set(i, asCompound(stack, slot));
+        list.set(i, asCompound(stack, slot, isWide));
     }
 
-    public static NbtCompound asCompound(ItemStack stack, int slot) {
+    public static NbtCompound asCompound(ItemStack stack, int slot, boolean isWide) {
         NbtCompound nbt = new NbtCompound();
-        nbt.putByte(InventoryUtil.SLOT_KEY, (byte)slot);
+        NbtItemListUtil.putSlot(nbt, slot, isWide);
         stack.writeNbt(nbt);
         return nbt;
     }
@@ -115,5 +228,23 @@ public final class NbtItemListUtil {
         return ItemStack.fromNbt(nbt);
     }
 
+    public static NbtCompound intern(NbtCompound nbt) {
+        // Interned compounds are shared with every other equal compound, and changing
+        // one would also change its hash inside the interner. So they may only be used
+        // as keys, and must be copied before they are handed to a live stack
+        // (ItemStack.setNbt alone may already modify them via Item.postProcessNbt).
+        // The given compound is only used for the lookup, and is copied on a miss,
+        // so live compounds can be interned without copying them every time.
+        synchronized (INTERNED_NBTS) {
+            WeakReference<NbtCompound> reference = INTERNED_NBTS.get(nbt);
+            NbtCompound interned = reference == null ? null : reference.get();
+            if (interned == null) {
+                interned = nbt.copy();
+                INTERNED_NBTS.put(interned, new WeakReference<>(interned));
+            }
+            return interned;
+        }
+    }
+
     private NbtItemListUtil() { }
 }